@@ -0,0 +1,315 @@
+package org.firstinspires.ftc.teamcode.config.hardware;
+
+import com.qualcomm.robotcore.hardware.DcMotorController;
+import com.qualcomm.robotcore.hardware.DcMotorEx;
+import com.qualcomm.robotcore.hardware.PIDCoefficients;
+import com.qualcomm.robotcore.hardware.PIDFCoefficients;
+import com.qualcomm.robotcore.hardware.configuration.typecontainers.MotorConfigurationType;
+
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.CurrentUnit;
+
+/**
+ * {@link DcMotorEx} that drops writes which wouldn't change anything on the hub.
+ * <p>
+ * Powers within {@link CachingHardware.Params#powerEpsilon} of the last sent power are dropped (a change to
+ * exactly zero always goes through), and repeated {@link #setMode} / {@link #setZeroPowerBehavior} calls
+ * with the same value are dropped. STOP_AND_RESET_ENCODER is an action rather than a state, so it's always
+ * sent. Anything that can change what the hub is doing with the power (a mode change, direction change,
+ * velocity command, enable/disable) forgets the cached power so the next setPower is sent.
+ * <p>
+ * Get instances from {@link CachingHardware#motor}; there must only be one wrapper per motor.
+ */
+public class CachingDcMotorEx implements DcMotorEx {
+    private final DcMotorEx delegate;
+    private final String name;
+
+    private double lastPower = Double.NaN;
+    private RunMode lastMode;
+    private ZeroPowerBehavior lastZeroPowerBehavior;
+
+    private long sentWrites, suppressedWrites;
+
+    CachingDcMotorEx(DcMotorEx delegate, String name) {
+        this.delegate = delegate;
+        this.name = name;
+    }
+
+    public DcMotorEx getDelegate() {
+        return delegate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSentWrites() {
+        return sentWrites;
+    }
+
+    public long getSuppressedWrites() {
+        return suppressedWrites;
+    }
+
+    public void resetWriteCounts() {
+        sentWrites = 0;
+        suppressedWrites = 0;
+    }
+
+    /**
+     * Forgets every cached value so the next write of each kind is sent.
+     */
+    public void invalidate() {
+        lastPower = Double.NaN;
+        lastMode = null;
+        lastZeroPowerBehavior = null;
+    }
+
+    @Override
+    public void setPower(double power) {
+        boolean toZero = power == 0 && lastPower != 0;
+        if (!toZero && Math.abs(power - lastPower) < CachingHardware.PARAMS.powerEpsilon) {
+            suppressedWrites++;
+            return;
+        }
+        delegate.setPower(power);
+        lastPower = power;
+        sentWrites++;
+    }
+
+    @Override
+    public double getPower() {
+        return delegate.getPower();
+    }
+
+    @Override
+    public void setMode(RunMode mode) {
+        if (mode == lastMode && mode != RunMode.STOP_AND_RESET_ENCODER) {
+            suppressedWrites++;
+            return;
+        }
+        delegate.setMode(mode);
+        lastMode = mode;
+        lastPower = Double.NaN;
+        sentWrites++;
+    }
+
+    @Override
+    public RunMode getMode() {
+        return delegate.getMode();
+    }
+
+    @Override
+    public void setZeroPowerBehavior(ZeroPowerBehavior zeroPowerBehavior) {
+        if (zeroPowerBehavior == lastZeroPowerBehavior) {
+            suppressedWrites++;
+            return;
+        }
+        delegate.setZeroPowerBehavior(zeroPowerBehavior);
+        lastZeroPowerBehavior = zeroPowerBehavior;
+        sentWrites++;
+    }
+
+    @Override
+    public ZeroPowerBehavior getZeroPowerBehavior() {
+        return delegate.getZeroPowerBehavior();
+    }
+
+    @Override
+    public void setDirection(Direction direction) {
+        // software only, but flips the sign of the power the hub sees
+        delegate.setDirection(direction);
+        lastPower = Double.NaN;
+    }
+
+    @Override
+    public Direction getDirection() {
+        return delegate.getDirection();
+    }
+
+    @Override
+    public void setVelocity(double angularRate) {
+        delegate.setVelocity(angularRate);
+        lastPower = Double.NaN;
+        sentWrites++;
+    }
+
+    @Override
+    public void setVelocity(double angularRate, AngleUnit unit) {
+        delegate.setVelocity(angularRate, unit);
+        lastPower = Double.NaN;
+        sentWrites++;
+    }
+
+    @Override
+    public void setMotorEnable() {
+        delegate.setMotorEnable();
+        lastPower = Double.NaN;
+    }
+
+    @Override
+    public void setMotorDisable() {
+        delegate.setMotorDisable();
+        lastPower = Double.NaN;
+    }
+
+    @Override
+    public boolean isMotorEnabled() {
+        return delegate.isMotorEnabled();
+    }
+
+    @Override
+    @Deprecated
+    public void setPowerFloat() {
+        delegate.setPowerFloat();
+        lastPower = Double.NaN;
+    }
+
+    @Override
+    public boolean getPowerFloat() {
+        return delegate.getPowerFloat();
+    }
+
+    @Override
+    public void setTargetPosition(int position) {
+        delegate.setTargetPosition(position);
+    }
+
+    @Override
+    public int getTargetPosition() {
+        return delegate.getTargetPosition();
+    }
+
+    @Override
+    public boolean isBusy() {
+        return delegate.isBusy();
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return delegate.getCurrentPosition();
+    }
+
+    @Override
+    public double getVelocity() {
+        return delegate.getVelocity();
+    }
+
+    @Override
+    public double getVelocity(AngleUnit unit) {
+        return delegate.getVelocity(unit);
+    }
+
+    @Override
+    @Deprecated
+    public void setPIDCoefficients(RunMode mode, PIDCoefficients pidCoefficients) {
+        delegate.setPIDCoefficients(mode, pidCoefficients);
+    }
+
+    @Override
+    public void setPIDFCoefficients(RunMode mode, PIDFCoefficients pidfCoefficients) {
+        delegate.setPIDFCoefficients(mode, pidfCoefficients);
+    }
+
+    @Override
+    public void setVelocityPIDFCoefficients(double p, double i, double d, double f) {
+        delegate.setVelocityPIDFCoefficients(p, i, d, f);
+    }
+
+    @Override
+    public void setPositionPIDFCoefficients(double p) {
+        delegate.setPositionPIDFCoefficients(p);
+    }
+
+    @Override
+    @Deprecated
+    public PIDCoefficients getPIDCoefficients(RunMode mode) {
+        return delegate.getPIDCoefficients(mode);
+    }
+
+    @Override
+    public PIDFCoefficients getPIDFCoefficients(RunMode mode) {
+        return delegate.getPIDFCoefficients(mode);
+    }
+
+    @Override
+    public void setTargetPositionTolerance(int tolerance) {
+        delegate.setTargetPositionTolerance(tolerance);
+    }
+
+    @Override
+    public int getTargetPositionTolerance() {
+        return delegate.getTargetPositionTolerance();
+    }
+
+    @Override
+    public double getCurrent(CurrentUnit unit) {
+        return delegate.getCurrent(unit);
+    }
+
+    @Override
+    public double getCurrentAlert(CurrentUnit unit) {
+        return delegate.getCurrentAlert(unit);
+    }
+
+    @Override
+    public void setCurrentAlert(double current, CurrentUnit unit) {
+        delegate.setCurrentAlert(current, unit);
+    }
+
+    @Override
+    public boolean isOverCurrent() {
+        return delegate.isOverCurrent();
+    }
+
+    @Override
+    public MotorConfigurationType getMotorType() {
+        return delegate.getMotorType();
+    }
+
+    @Override
+    public void setMotorType(MotorConfigurationType motorType) {
+        delegate.setMotorType(motorType);
+    }
+
+    @Override
+    public DcMotorController getController() {
+        return delegate.getController();
+    }
+
+    @Override
+    public int getPortNumber() {
+        return delegate.getPortNumber();
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return delegate.getManufacturer();
+    }
+
+    @Override
+    public String getDeviceName() {
+        return delegate.getDeviceName();
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return delegate.getConnectionInfo();
+    }
+
+    @Override
+    public int getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+        delegate.resetDeviceConfigurationForOpMode();
+        invalidate();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
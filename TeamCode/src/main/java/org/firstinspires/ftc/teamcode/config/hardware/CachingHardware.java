@@ -0,0 +1,113 @@
+package org.firstinspires.ftc.teamcode.config.hardware;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.qualcomm.robotcore.hardware.DcMotorEx;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.hardware.Servo;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Drop-in replacement for {@code hardwareMap.get(DcMotorEx.class, name)} and
+ * {@code hardwareMap.get(Servo.class, name)} that hands out write-caching wrappers.
+ * <p>
+ * The drive and the subsystems all get the same wrapper for a device, since two caches in front of one
+ * motor would disagree about what was last sent. Getting a device also invalidates its cache, because
+ * the SDK resets every device between op modes.
+ */
+@Config
+public final class CachingHardware {
+    public static class Params {
+        // setPower changes smaller than this are dropped
+        public double powerEpsilon = 0.002;
+        // setPosition changes smaller than this are dropped
+        public double positionEpsilon = 0.001;
+    }
+
+    public static Params PARAMS = new Params();
+
+    private static final Map<String, CachingDcMotorEx> motors = new HashMap<>();
+    private static final Map<String, CachingServo> servos = new HashMap<>();
+
+    private CachingHardware() {
+    }
+
+    public static synchronized CachingDcMotorEx motor(HardwareMap hardwareMap, String name) {
+        DcMotorEx raw = hardwareMap.get(DcMotorEx.class, name);
+        CachingDcMotorEx motor = motors.get(name);
+        if (motor == null || motor.getDelegate() != raw) {
+            motor = new CachingDcMotorEx(raw, name);
+            motors.put(name, motor);
+        } else {
+            motor.invalidate();
+        }
+        return motor;
+    }
+
+    public static synchronized CachingServo servo(HardwareMap hardwareMap, String name) {
+        Servo raw = hardwareMap.get(Servo.class, name);
+        CachingServo servo = servos.get(name);
+        if (servo == null || servo.getDelegate() != raw) {
+            servo = new CachingServo(raw, name);
+            servos.put(name, servo);
+        } else {
+            servo.invalidate();
+        }
+        return servo;
+    }
+
+    /**
+     * Puts the sent and suppressed write counts of every wrapped device.
+     */
+    public static synchronized void addTelemetry(TelemetryPacket p) {
+        for (CachingDcMotorEx motor : motors.values()) {
+            p.put("writes/" + motor.getName() + " sent", motor.getSentWrites());
+            p.put("writes/" + motor.getName() + " suppressed", motor.getSuppressedWrites());
+        }
+        for (CachingServo servo : servos.values()) {
+            p.put("writes/" + servo.getName() + " sent", servo.getSentWrites());
+            p.put("writes/" + servo.getName() + " suppressed", servo.getSuppressedWrites());
+        }
+    }
+
+    /**
+     * Driver station version of {@link #addTelemetry(TelemetryPacket)}, one line per device.
+     */
+    public static synchronized void addTelemetry(Telemetry telemetry) {
+        for (CachingDcMotorEx motor : motors.values()) {
+            telemetry.addData("writes/" + motor.getName(), "%d sent, %d suppressed",
+                    motor.getSentWrites(), motor.getSuppressedWrites());
+        }
+        for (CachingServo servo : servos.values()) {
+            telemetry.addData("writes/" + servo.getName(), "%d sent, %d suppressed",
+                    servo.getSentWrites(), servo.getSuppressedWrites());
+        }
+    }
+
+    /**
+     * Writes that actually went to a hub, over every wrapped device.
+     */
+    public static synchronized long getSentWrites() {
+        long sent = 0;
+        for (CachingDcMotorEx motor : motors.values()) {
+            sent += motor.getSentWrites();
+        }
+        for (CachingServo servo : servos.values()) {
+            sent += servo.getSentWrites();
+        }
+        return sent;
+    }
+
+    public static synchronized void resetWriteCounts() {
+        for (CachingDcMotorEx motor : motors.values()) {
+            motor.resetWriteCounts();
+        }
+        for (CachingServo servo : servos.values()) {
+            servo.resetWriteCounts();
+        }
+    }
+}
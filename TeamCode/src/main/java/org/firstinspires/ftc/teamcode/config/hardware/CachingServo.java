@@ -0,0 +1,123 @@
+package org.firstinspires.ftc.teamcode.config.hardware;
+
+import com.qualcomm.robotcore.hardware.Servo;
+import com.qualcomm.robotcore.hardware.ServoController;
+
+/**
+ * {@link Servo} that drops positions within {@link CachingHardware.Params#positionEpsilon} of the last
+ * sent position. Changing the direction or range forgets the cached position.
+ * <p>
+ * Get instances from {@link CachingHardware#servo}; there must only be one wrapper per servo.
+ */
+public class CachingServo implements Servo {
+    private final Servo delegate;
+    private final String name;
+
+    private double lastPosition = Double.NaN;
+
+    private long sentWrites, suppressedWrites;
+
+    CachingServo(Servo delegate, String name) {
+        this.delegate = delegate;
+        this.name = name;
+    }
+
+    public Servo getDelegate() {
+        return delegate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSentWrites() {
+        return sentWrites;
+    }
+
+    public long getSuppressedWrites() {
+        return suppressedWrites;
+    }
+
+    public void resetWriteCounts() {
+        sentWrites = 0;
+        suppressedWrites = 0;
+    }
+
+    public void invalidate() {
+        lastPosition = Double.NaN;
+    }
+
+    @Override
+    public void setPosition(double position) {
+        if (Math.abs(position - lastPosition) < CachingHardware.PARAMS.positionEpsilon) {
+            suppressedWrites++;
+            return;
+        }
+        delegate.setPosition(position);
+        lastPosition = position;
+        sentWrites++;
+    }
+
+    @Override
+    public double getPosition() {
+        return delegate.getPosition();
+    }
+
+    @Override
+    public void setDirection(Direction direction) {
+        delegate.setDirection(direction);
+        lastPosition = Double.NaN;
+    }
+
+    @Override
+    public Direction getDirection() {
+        return delegate.getDirection();
+    }
+
+    @Override
+    public void scaleRange(double min, double max) {
+        delegate.scaleRange(min, max);
+        lastPosition = Double.NaN;
+    }
+
+    @Override
+    public ServoController getController() {
+        return delegate.getController();
+    }
+
+    @Override
+    public int getPortNumber() {
+        return delegate.getPortNumber();
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return delegate.getManufacturer();
+    }
+
+    @Override
+    public String getDeviceName() {
+        return delegate.getDeviceName();
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return delegate.getConnectionInfo();
+    }
+
+    @Override
+    public int getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+        delegate.resetDeviceConfigurationForOpMode();
+        invalidate();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
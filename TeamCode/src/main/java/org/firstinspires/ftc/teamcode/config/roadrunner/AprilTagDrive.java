@@ -3,9 +3,11 @@ package org.firstinspires.ftc.teamcode.config.roadrunner;
 
 
 import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
 import com.acmerobotics.roadrunner.Pose2d;
 import com.acmerobotics.roadrunner.PoseVelocity2d;
 import com.acmerobotics.roadrunner.Time;
+import com.acmerobotics.roadrunner.Twist2d;
 import com.acmerobotics.roadrunner.Twist2dDual;
 import com.acmerobotics.roadrunner.Vector2d;
 import com.acmerobotics.roadrunner.ftc.FlightRecorder;
@@ -14,7 +16,7 @@ import com.qualcomm.robotcore.hardware.HardwareMap;
 import org.firstinspires.ftc.robotcore.external.matrices.VectorF;
 import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
 import org.firstinspires.ftc.robotcore.external.navigation.Quaternion;
-import org.firstinspires.ftc.teamcode.config.roadrunner.messages.PoseMessage;
+import org.firstinspires.ftc.teamcode.config.roadrunner.messages.TagFusionMessage;
 import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
 import org.firstinspires.ftc.vision.apriltag.AprilTagLibrary;
 import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
@@ -36,20 +38,60 @@ public class AprilTagDrive extends MecanumDrive {
                 0,
                 3.5);
 
-        /*
-         * Q model covariance (trust in model), default 0.1 HIGHER IS LESS TRUST
-         * R sensor covariance (trust in sensor), default 0.4
-         */
-        static double kalmanFilterQ = 0.4;
-        static double kalmanFilterR = 0.1;
+        // standard deviation of a tag position measurement (inches), growing with distance to the tag
+        // process noise is in PoseKalmanFilter.PARAMS
+        static double tagPositionSigma = 0.5;
+        static double tagSigmaPerInch = 0.02;
+
+        // fuse each tag against where odometry says the robot was when the frame was taken, then carry
+        // the measurement forward by the motion since
+        static boolean latencyCompensation = true;
+
+        // a tag seen at an angle, or with a low decision margin, is trusted less; sigma is multiplied by
+        // 1 + obliqueGain * (1 / cos(yaw) - 1) and by goodDecisionMargin / margin below that margin
+        static double obliqueGain = 1;
+        static double goodDecisionMargin = 40;
+
+        // detections further from the filter than this (squared Mahalanobis distance, chi-square with 2 dof;
+        // 9.21 is 99%) are thrown out
+        static double gateDistance = 9.21;
+    }
+
+    /**
+     * A position from one frame's tags: the inverse variance weighted average of the accepted ones, with
+     * its covariance.
+     */
+    public static final class TagEstimate {
+        public double x, y;
+        public double covXX, covXY, covYY;
+        public int accepted, rejected;
     }
 
     Vector2d cameraOffset;
     final AprilTagProcessor aprilTag;
     public List<AprilTagDetection> currentDetections;
-    final KalmanFilter.Vector2dKalmanFilter posFilter;
-    Pose2d localizerPose;
-    Vector2d filteredVector;
+    final PoseKalmanFilter filter;
+    // the last pose the filter produced, to notice when pose is set from outside, and what it was built from
+    Pose2d filteredPose;
+    private double filteredX, filteredY, filteredHeading;
+    // scratch for getFCPosition
+    private final double[] tagPosition = new double[2];
+
+    // dead reckoning only, never corrected by tags, so the motion between two timestamps can be looked up
+    // without counting corrections made in between
+    final PoseHistory odometryHistory = new PoseHistory(100);
+    private double odometryX, odometryY, odometryHeading;
+    private final double[] odometryThen = new double[3];
+    // acquisition time of the newest frame fused, the processor keeps returning a frame until the next one
+    private long lastFrameNanos;
+    // the processor hands out a new list every frame, so getting the same one back means nothing new; this
+    // is what catches detections without an acquisition time
+    private List<AprilTagDetection> fusedDetections;
+
+    private final TagFusionMessage tagFusionMessage = new TagFusionMessage(0, 0, 0, 0, 0);
+    private long totalAccepted, totalRejected;
+    private int frameAccepted, frameRejected;
+    private double frameMaxDistance;
     /**
      * Init with just one camera; use instead of MecanumDrive
      * @param hardwareMap the hardware map
@@ -59,70 +101,239 @@ public class AprilTagDrive extends MecanumDrive {
     public AprilTagDrive(HardwareMap hardwareMap, Pose2d pose, AprilTagProcessor aprilTag) {
         super(hardwareMap, pose);
         this.aprilTag = aprilTag;
-        this.posFilter = new KalmanFilter.Vector2dKalmanFilter(Params.kalmanFilterQ, Params.kalmanFilterR);
+        this.filter = new PoseKalmanFilter(pose);
+        this.filteredPose = pose;
         this.cameraOffset = Params.cameraOffset;
 
     }
+
+    /**
+     * Not supported: {@link #updatePose()} runs the localizer itself on this thread, so a service thread
+     * would race it for the encoders and the filter would never see the service's pose.
+     */
     @Override
-    public PoseVelocity2d updatePoseEstimate() {
-        // RR standard: get the movement between loops from the localizer
-        // RR assumes there's no way to get absolute position and gets relative between loops
-        // note that this adds on top of existing pose, even if that pose was just corrected by apriltag
-        Twist2dDual<Time> twist = localizer.update();
-        localizerPose = pose.plus(twist.value());
-        // Get the absolute position from the camera
-        Vector2d aprilVector = getVectorBasedOnTags();
-
-
-        // it's possible we can't see any tags, so we need to check for null
-        if (aprilVector != null) {
-            // if we can see tags, we use the apriltag position
-            // however apriltags don't have accurate headings so we use the localizer heading
-            // localizer heading, for us and in TwoDeadWheelLocalizer, is IMU and absolute-ish
-            // TODO: apriltags unreliable at higher speeds? speed limit? global shutter cam? https://discord.com/channels/225450307654647808/225451520911605765/1164034719369941023
-
-            // we input the change from odometry with the april absolute pose into the kalman filter
-            filteredVector = posFilter.update(twist.value(), aprilVector);
-            // then we add the kalman filtered position to the localizer heading as a pose
-            pose = new Pose2d(aprilVector, localizerPose.heading); // TODO: aprilVector should be filteredVector to use kalman filter (kalman filter is untested)
+    public OdometryService startOdometryService() {
+        throw new IllegalStateException("AprilTagDrive localizes on the op mode thread");
+    }
+
+    @Override
+    public void updatePose() {
+        profiler.markLoop();
+        long t0 = profiler.start();
+
+        bulkReads.beginCycleIfStale();
+
+        // the movement between loops, in the robot frame; the localizer's speeds are trusted as they are
+        double deltaX, deltaY, deltaHeading;
+        if (localizer instanceof ThreeDeadWheelLocalizer) {
+            ThreeDeadWheelLocalizer deadWheels = (ThreeDeadWheelLocalizer) localizer;
+            deadWheels.integrate();
+            deltaX = deadWheels.deltaX;
+            deltaY = deadWheels.deltaY;
+            deltaHeading = deadWheels.deltaHeading;
+            velX = deadWheels.velX;
+            velY = deadWheels.velY;
+            angVel = deadWheels.angVel;
         } else {
-            // if we can't see tags, we use the localizer position to update the kalman fiter
-            // not sure if this is logical at all??
-            // UNTESTED, WE WERENT USING FILTEREDVECTOR :skull:
-            filteredVector = posFilter.update(twist.value(), localizerPose.position);
+            Twist2dDual<Time> twist = localizer.update();
+            Twist2d delta = twist.value();
+            deltaX = delta.line.x;
+            deltaY = delta.line.y;
+            deltaHeading = delta.angle;
+            PoseVelocity2d vel = twist.velocity().value();
+            velX = vel.linearVel.x;
+            velY = vel.linearVel.y;
+            angVel = vel.angVel;
+        }
+        profiler.stop(LoopProfiler.Phase.LOCALIZER, t0);
 
-            // then just use the existing pose
-            pose = localizerPose;
+        if (pose != filteredPose) {
+            filter.reset(pose);
         }
+        filter.predict(deltaX, deltaY, deltaHeading);
+
+        double mid = odometryHeading + deltaHeading / 2;
+        odometryX += Math.cos(mid) * deltaX - Math.sin(mid) * deltaY;
+        odometryY += Math.sin(mid) * deltaX + Math.cos(mid) * deltaY;
+        odometryHeading = Math.IEEEremainder(odometryHeading + deltaHeading, 2 * Math.PI);
+        odometryHistory.add(System.nanoTime(), odometryX, odometryY, odometryHeading);
 
+        // every tag is its own measurement, weighted by how far away it is
+        // apriltags don't have accurate headings, so only the position is measured and the heading
+        // comes from the localizer (and from the cross-covariance)
+        // TODO: apriltags unreliable at higher speeds? speed limit? global shutter cam? https://discord.com/channels/225450307654647808/225451520911605765/1164034719369941023
+        // one snapshot per loop, the processor may swap the list at any time
+        currentDetections = aprilTag.getDetections();
+        // a list that was already fused is skipped whole
+        int detectionCount = currentDetections == fusedDetections ? 0 : currentDetections.size();
+        fusedDetections = currentDetections;
+        long newestFrame = lastFrameNanos;
+        boolean newFrame = false;
+        for (int i = 0; i < detectionCount; i++) {
+            AprilTagDetection detection = currentDetections.get(i);
+            long frameNanos = detection.frameAcquisitionNanoTime;
+            if (frameNanos != 0 && frameNanos <= lastFrameNanos) {
+                // already fused
+                continue;
+            }
+            newestFrame = Math.max(newestFrame, frameNanos);
 
+            double heading = filter.heading;
+            // motion since the frame, in the filter's field frame
+            double sinceX = 0, sinceY = 0;
+            if (Params.latencyCompensation && frameNanos != 0) {
+                if (!odometryHistory.poseAt(frameNanos, odometryThen)) {
+                    if (frameNanos < odometryHistory.oldestTimestamp()) {
+                        // too old to place
+                        continue;
+                    }
+                } else {
+                    double turned = Math.IEEEremainder(odometryHeading - odometryThen[2], 2 * Math.PI);
+                    heading -= turned;
+                    // odometry's field frame drifts from the filter's by however far the heading was corrected
+                    double drift = filter.heading - odometryHeading;
+                    double dx = odometryX - odometryThen[0], dy = odometryY - odometryThen[1];
+                    sinceX = Math.cos(drift) * dx - Math.sin(drift) * dy;
+                    sinceY = Math.sin(drift) * dx + Math.cos(drift) * dy;
+                }
+            }
 
-        // rr standard
-        poseHistory.add(pose);
-        while (poseHistory.size() > 100) {
-            poseHistory.removeFirst();
+            if (!getFCPosition(detection, heading, Params.cameraOffset, tagPosition)) {
+                continue;
+            }
+            if (!newFrame) {
+                newFrame = true;
+                frameAccepted = 0;
+                frameRejected = 0;
+                frameMaxDistance = 0;
+            }
+            double variance = tagVariance(detection);
+            double zx = tagPosition[0] + sinceX, zy = tagPosition[1] + sinceY;
+            double distance = filter.positionDistance(zx, zy, variance, 0, variance);
+            frameMaxDistance = Math.max(frameMaxDistance, distance);
+            if (distance > Params.gateDistance) {
+                frameRejected++;
+                totalRejected++;
+                continue;
+            }
+            frameAccepted++;
+            totalAccepted++;
+            filter.updatePosition(zx, zy, variance, 0, variance);
         }
+        if (newFrame) {
+            FlightRecorder.write("TAG_FUSION", tagFusionMessage.set(
+                    frameAccepted, frameRejected, totalAccepted, totalRejected, frameMaxDistance));
+        }
+        lastFrameNanos = newestFrame;
 
-        FlightRecorder.write("ESTIMATED_POSE", new PoseMessage(pose));
+        // Pose2d is immutable, so only replace it when the filter moved
+        if (pose != filteredPose || filter.x != filteredX || filter.y != filteredY
+                || filter.heading != filteredHeading) {
+            pose = new Pose2d(filter.x, filter.y, filter.heading);
+            filteredX = filter.x;
+            filteredY = filter.y;
+            filteredHeading = filter.heading;
+        }
+        filteredPose = pose;
 
-        return twist.velocity().value(); // trust the existing localizer for speeds; because I don't know how to do it with apriltags
+        finishPoseUpdate(t0);
     }
+
+    /**
+     * Weighted average of the positions from every tag in one detections snapshot that agrees with the
+     * filter, or null if none does. Use {@link #estimateFromTags} for the covariance.
+     */
     public Vector2d getVectorBasedOnTags() {
-        return aprilTag.getDetections().stream() // get the tag detections as a Java stream
-                // convert them to Vector2d positions using getFCPosition
-                .map(detection -> getFCPosition(detection, localizerPose.heading.log(), Params.cameraOffset))
-                // add them together
-                .reduce(new Vector2d(0, 0), Vector2d::plus)
-                // divide by the number of tags to get the average
-                .div(aprilTag.getDetections().size());
+        TagEstimate estimate = new TagEstimate();
+        return estimateFromTags(aprilTag.getDetections(), estimate)
+                ? new Vector2d(estimate.x, estimate.y) : null;
+    }
+
+    /**
+     * Fuses the detections into out, weighting each by {@link #tagVariance} and gating it against the
+     * filter. Doesn't touch the filter, and isn't latency compensated.
+     * @return false if no detection was accepted
+     */
+    public boolean estimateFromTags(List<AprilTagDetection> detections, TagEstimate out) {
+        double heading = filter.heading;
+        double sumWeight = 0, sumX = 0, sumY = 0;
+        out.accepted = 0;
+        out.rejected = 0;
+        for (AprilTagDetection detection : detections) {
+            if (!getFCPosition(detection, heading, Params.cameraOffset, tagPosition)) {
+                continue;
+            }
+            double variance = tagVariance(detection);
+            if (filter.positionDistance(tagPosition[0], tagPosition[1], variance, 0, variance)
+                    > Params.gateDistance) {
+                out.rejected++;
+                continue;
+            }
+            out.accepted++;
+            double weight = 1 / variance;
+            sumWeight += weight;
+            sumX += weight * tagPosition[0];
+            sumY += weight * tagPosition[1];
+        }
+        if (out.accepted == 0) {
+            return false;
+        }
+        out.x = sumX / sumWeight;
+        out.y = sumY / sumWeight;
+        // independent isotropic measurements
+        out.covXX = out.covYY = 1 / sumWeight;
+        out.covXY = 0;
+        return true;
+    }
+
+    /**
+     * Position variance (in^2) of one detection, from its range, how obliquely the tag is seen and its
+     * decision margin.
+     */
+    public double tagVariance(AprilTagDetection detection) {
+        double sigma = Params.tagPositionSigma + Params.tagSigmaPerInch * detection.ftcPose.range;
+        // ftcPose angles are in degrees; past 75 degrees a tag is barely a sliver anyway
+        double yaw = Math.min(Math.toRadians(Math.abs(detection.ftcPose.yaw)), Math.toRadians(75));
+        sigma *= 1 + Params.obliqueGain * (1 / Math.cos(yaw) - 1);
+        if (detection.decisionMargin < Params.goodDecisionMargin) {
+            sigma *= Params.goodDecisionMargin / Math.max(detection.decisionMargin, 1);
+        }
+        return sigma * sigma;
+    }
+
+    @Override
+    public void addTelemetry(TelemetryPacket p) {
+        super.addTelemetry(p);
+        p.put("tags accepted (frame)", frameAccepted);
+        p.put("tags rejected (frame)", frameRejected);
+        p.put("tags accepted", totalAccepted);
+        p.put("tags rejected", totalRejected);
+        p.put("tag max distance (frame)", frameMaxDistance);
+        p.put("pose sigma x (in)", Math.sqrt(filter.pxx));
+        p.put("pose sigma y (in)", Math.sqrt(filter.pyy));
+        p.put("pose sigma heading (deg)", Math.toDegrees(Math.sqrt(filter.phh)));
     }
 
     /**
      * getFCPosition credit Michael from team 14343 (@overkil on Discord)
      * @param botheading In Radians.
-     * @return FC Pose of bot.
+     * @return FC Pose of bot, or null if the tag isn't a CenterStage tag.
      */
     public Vector2d getFCPosition(AprilTagDetection detection, double botheading, Vector2d cameraOffset) {
+        double[] out = new double[2];
+        return getFCPosition(detection, botheading, cameraOffset, out) ? new Vector2d(out[0], out[1]) : null;
+    }
+
+    /**
+     * {@link #getFCPosition(AprilTagDetection, double, Vector2d)} into out[0] and out[1].
+     * @return false if the tag isn't a CenterStage tag
+     */
+    public boolean getFCPosition(AprilTagDetection detection, double botheading, Vector2d cameraOffset,
+                                 double[] out) {
+        if (detection.ftcPose == null || !CenterStageTags.contains(detection.id)) {
+            return false;
+        }
+
         // get coordinates of the robot in RC coordinates
         // ensure offsets are RC
         double x = detection.ftcPose.x-cameraOffset.x;
@@ -134,27 +345,18 @@ public class AprilTagDrive extends MecanumDrive {
         // rotate RC coordinates to be field-centric
         double x2 = x*Math.cos(botheading)+y*Math.sin(botheading);
         double y2 = x*-Math.sin(botheading)+y*Math.cos(botheading);
-        // add FC coordinates to apriltag position
-        // tags is just the CS apriltag library
-        VectorF tagpose = getCenterStageTagLibrary().lookupTag(detection.id).fieldPosition;
-
-
-        // todo: this will need to be changed for next season (use tag heading to automate??)
-        if (!detection.metadata.name.contains("Audience")) { // is it a backdrop tag?
-            return new Vector2d(
-                    tagpose.get(0) + y2,
-                    tagpose.get(1) - x2);
 
-        } else {
-            return new Vector2d(
-                    tagpose.get(0) - y2,
-                    tagpose.get(1) + x2);
-
-        }
+        // step back out of the tag's face: (-y2, x2) rotated by the direction the tag faces
+        int id = detection.id;
+        double cos = CenterStageTags.facingCos(id), sin = CenterStageTags.facingSin(id);
+        out[0] = CenterStageTags.x(id) - cos * y2 - sin * x2;
+        out[1] = CenterStageTags.y(id) - sin * y2 + cos * x2;
+        return true;
     }
 
     // this custom position library credit Michael from team 14343 (@overkil on Discord)
     // TODO: will need to be changed for 24-25 season
+    // keep in sync with CenterStageTags, which relocalization uses
     public static AprilTagLibrary getCenterStageTagLibrary()
     {
         return new AprilTagLibrary.Builder()
@@ -0,0 +1,234 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import androidx.annotation.NonNull;
+
+import com.acmerobotics.dashboard.canvas.Canvas;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.acmerobotics.roadrunner.Action;
+import com.acmerobotics.roadrunner.ftc.Actions;
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Puts every hub in MANUAL bulk caching and refreshes the caches exactly once per control cycle.
+ * <p>
+ * In AUTO mode a hub does a new bulk read whenever a channel is read twice, which happens all the time
+ * since the localizer, the lift/gear subsystems and the followers don't read in the same order. Here the
+ * cache is only refreshed in {@link #beginCycle()}, so every encoder, velocity and isBusy read in a cycle
+ * comes from the same bulk packet, and each hub does exactly one bulk read per cycle.
+ * <p>
+ * Run top level actions through {@link #runBlocking(Action)} (or {@link #wrap(Action)}) so a cycle begins
+ * at the top of every loop, even when no drive action is running. Otherwise
+ * {@link MecanumDrive#updatePoseEstimate()} begins one itself.
+ * <p>
+ * The telemetry counts hub transactions per loop: the bulk reads from every thread, plus whatever else was
+ * registered with {@link #addTransactionSource} (the sampler threads' reads, the motor and servo writes).
+ * A loop is one run of a wrapped action, or an unwrapped update that had to begin its own cycle.
+ * <p>
+ * While another thread owns the cycles (see {@link #setCycleOwner(Thread)}), only that thread clears the
+ * caches; wrapped actions and {@link #beginCycleIfStale()} on other threads read whatever it last fetched.
+ */
+public final class BulkReadCoordinator {
+    private final LynxModule[] modules;
+
+    // set by beginCycle(), consumed by beginCycleIfStale(); cycles may also begin on the OdometryService
+    // thread, hence the locking
+    private boolean fresh;
+    // the only thread allowed to begin cycles, or null for whoever calls
+    private Thread cycleOwner;
+
+    private static final long RATE_PERIOD_NANOS = 500_000_000;
+
+    private long cycles;
+    private long bulkReads;
+    private long loops;
+    private long lastCycleNanos;
+    private double cyclePeriodMs;
+    private double bulkReadMs;
+
+    // other transaction counters (running totals), and the per-loop rates over the last period
+    private String[] sourceKeys = new String[0];
+    private LongSupplier[] sources = new LongSupplier[0];
+    private long[] lastSourceCounts = new long[0];
+    private double[] sourcesPerLoop = new double[0];
+    private long rateStart, lastLoops, lastBulkReads;
+    private double bulkReadsPerLoop, transactionsPerLoop;
+
+    public BulkReadCoordinator(HardwareMap hardwareMap) {
+        List<LynxModule> hubs = hardwareMap.getAll(LynxModule.class);
+        modules = hubs.toArray(new LynxModule[0]);
+        for (LynxModule module : modules) {
+            module.setBulkCachingMode(LynxModule.BulkCachingMode.MANUAL);
+        }
+    }
+
+    /**
+     * Clears the caches and does one bulk read per hub. Call once at the top of every loop.
+     */
+    public synchronized void beginCycle() {
+        long start = System.nanoTime();
+        for (LynxModule module : modules) {
+            module.clearBulkCache();
+            // read eagerly so the transaction count and cost are known
+            module.getBulkData();
+        }
+        long now = System.nanoTime();
+
+        bulkReads += modules.length;
+        bulkReadMs = (now - start) * 1e-6;
+        if (cycles > 0) {
+            cyclePeriodMs = (start - lastCycleNanos) * 1e-6;
+        }
+        lastCycleNanos = start;
+        cycles++;
+        fresh = true;
+    }
+
+    /**
+     * Begins a cycle unless one was already begun since the last call. Used by the drive so loops that
+     * don't go through {@link #wrap(Action)} still get fresh encoder data.
+     */
+    public synchronized void beginCycleIfStale() {
+        if (ownedElsewhere()) {
+            return;
+        }
+        if (!fresh) {
+            beginCycle();
+            loops++;
+        }
+        fresh = false;
+    }
+
+    /**
+     * Hands cycling to owner (the OdometryService thread), or back to every caller with null. Call before
+     * the owner starts.
+     */
+    public synchronized void setCycleOwner(Thread owner) {
+        cycleOwner = owner;
+    }
+
+    /**
+     * Releases cycling if owner still has it.
+     */
+    public synchronized void releaseCycleOwner(Thread owner) {
+        if (cycleOwner == owner) {
+            cycleOwner = null;
+        }
+    }
+
+    private boolean ownedElsewhere() {
+        return cycleOwner != null && cycleOwner != Thread.currentThread();
+    }
+
+    /**
+     * Counts count (a running total, read from the op mode thread) as hub transactions in the per-loop
+     * telemetry, under name. Call during init.
+     */
+    public synchronized void addTransactionSource(String name, LongSupplier count) {
+        int n = sources.length;
+        sourceKeys = Arrays.copyOf(sourceKeys, n + 1);
+        sources = Arrays.copyOf(sources, n + 1);
+        lastSourceCounts = Arrays.copyOf(lastSourceCounts, n + 1);
+        sourcesPerLoop = Arrays.copyOf(sourcesPerLoop, n + 1);
+        sourceKeys[n] = "hub " + name + " per loop";
+        sources[n] = count;
+        lastSourceCounts[n] = count.getAsLong();
+    }
+
+    /**
+     * Returns an action that begins a cycle before each run of the given action (unless another thread
+     * owns the cycles).
+     */
+    public Action wrap(Action action) {
+        return new Action() {
+            @Override
+            public boolean run(@NonNull TelemetryPacket p) {
+                synchronized (BulkReadCoordinator.this) {
+                    loops++;
+                    if (!ownedElsewhere()) {
+                        beginCycle();
+                    }
+                }
+                return action.run(p);
+            }
+
+            @Override
+            public void preview(Canvas c) {
+                action.preview(c);
+            }
+        };
+    }
+
+    /**
+     * {@link Actions#runBlocking(Action)} with a bulk read cycle at the top of each loop.
+     */
+    public void runBlocking(Action action) {
+        Actions.runBlocking(wrap(action));
+    }
+
+    public long getCycleCount() {
+        return cycles;
+    }
+
+    public long getLoopCount() {
+        return loops;
+    }
+
+    /**
+     * Total hub bulk reads (transactions) done by this coordinator.
+     */
+    public long getBulkReadCount() {
+        return bulkReads;
+    }
+
+    // recomputes the per-loop rates once a period has passed
+    private void updateRates() {
+        long now = System.nanoTime();
+        if (now - rateStart < RATE_PERIOD_NANOS) {
+            return;
+        }
+        long loopCount, bulkReadCount;
+        synchronized (this) {
+            loopCount = loops;
+            bulkReadCount = bulkReads;
+        }
+        long loopDelta = loopCount - lastLoops;
+
+        double total = 0;
+        if (loopDelta > 0) {
+            bulkReadsPerLoop = (double) (bulkReadCount - lastBulkReads) / loopDelta;
+            total = bulkReadsPerLoop;
+        }
+        for (int i = 0; i < sources.length; i++) {
+            long count = sources[i].getAsLong();
+            if (loopDelta > 0) {
+                sourcesPerLoop[i] = (double) (count - lastSourceCounts[i]) / loopDelta;
+                total += sourcesPerLoop[i];
+            }
+            lastSourceCounts[i] = count;
+        }
+        if (loopDelta > 0) {
+            transactionsPerLoop = total;
+        }
+
+        rateStart = now;
+        lastLoops = loopCount;
+        lastBulkReads = bulkReadCount;
+    }
+
+    public void addTelemetry(TelemetryPacket p) {
+        updateRates();
+        p.put("hub transactions per loop", transactionsPerLoop);
+        p.put("hub bulk reads per loop", bulkReadsPerLoop);
+        for (int i = 0; i < sources.length; i++) {
+            p.put(sourceKeys[i], sourcesPerLoop[i]);
+        }
+        p.put("bulk read (ms)", bulkReadMs);
+        p.put("cycle period (ms)", cyclePeriodMs);
+        p.put("cycles", cycles);
+    }
+}
@@ -0,0 +1,81 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+/**
+ * Field positions of the CenterStage AprilTags, indexed by tag id, for relocalizing without building an
+ * AprilTagLibrary per lookup. Same values as {@link AprilTagDrive#getCenterStageTagLibrary()}.
+ * <p>
+ * Each tag also has the direction it faces (the backdrop tags face the audience, the audience wall tags
+ * face the backdrops), with its cosine and sine precomputed for rotating camera offsets into the field.
+ */
+public final class CenterStageTags {
+    public static final int MAX_ID = 10;
+
+    private static final double[] X = new double[MAX_ID + 1];
+    private static final double[] Y = new double[MAX_ID + 1];
+    private static final double[] Z = new double[MAX_ID + 1];
+    private static final double[] FACING = new double[MAX_ID + 1];
+    private static final double[] FACING_COS = new double[MAX_ID + 1];
+    private static final double[] FACING_SIN = new double[MAX_ID + 1];
+    private static final boolean[] KNOWN = new boolean[MAX_ID + 1];
+
+    static {
+        // backdrops
+        add(1, 61.75, 41.41, 4, Math.PI);
+        add(2, 61.75, 35.41, 4, Math.PI);
+        add(3, 61.75, 29.41, 4, Math.PI);
+        add(4, 61.75, -29.41, 4, Math.PI);
+        add(5, 61.75, -35.41, 4, Math.PI);
+        add(6, 61.75, -41.41, 4, Math.PI);
+        // audience wall
+        add(7, -70.25, -40.625, 5.5, 0);
+        add(8, -70.25, -35.125, 4, 0);
+        add(9, -70.25, 35.125, 4, 0);
+        add(10, -70.25, 40.625, 5.5, 0);
+    }
+
+    private CenterStageTags() {
+    }
+
+    private static void add(int id, double x, double y, double z, double facing) {
+        X[id] = x;
+        Y[id] = y;
+        Z[id] = z;
+        FACING[id] = facing;
+        FACING_COS[id] = Math.cos(facing);
+        FACING_SIN[id] = Math.sin(facing);
+        KNOWN[id] = true;
+    }
+
+    public static boolean contains(int id) {
+        return id >= 0 && id <= MAX_ID && KNOWN[id];
+    }
+
+    // the accessors below expect contains(id)
+
+    public static double x(int id) {
+        return X[id];
+    }
+
+    public static double y(int id) {
+        return Y[id];
+    }
+
+    public static double z(int id) {
+        return Z[id];
+    }
+
+    /**
+     * Field heading the tag faces (in radians).
+     */
+    public static double facing(int id) {
+        return FACING[id];
+    }
+
+    public static double facingCos(int id) {
+        return FACING_COS[id];
+    }
+
+    public static double facingSin(int id) {
+        return FACING_SIN[id];
+    }
+}
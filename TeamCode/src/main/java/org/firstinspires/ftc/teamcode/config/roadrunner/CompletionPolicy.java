@@ -0,0 +1,74 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.PoseVelocity2d;
+
+/**
+ * When a {@link MecanumDrive.FollowTrajectoryAction} or {@link MecanumDrive.TurnAction} is done.
+ * <p>
+ * {@link #TIMED} finishes as soon as the profile runs out, wherever the robot is. {@link #settle()} keeps
+ * holding the end pose after that until the pose, heading and velocity errors are all inside the
+ * tolerances, or until the correction timeout runs out.
+ */
+public final class CompletionPolicy {
+    public static final CompletionPolicy TIMED = new CompletionPolicy(false, 0, 0, 0, 0, 0);
+
+    public final boolean settle;
+    // in inches and radians
+    public final double positionTolerance;
+    public final double headingTolerance;
+    // in inches per second and radians per second
+    public final double velocityTolerance;
+    public final double angVelTolerance;
+    // longest time spent correcting after the profile ends (in seconds)
+    public final double correctionTimeout;
+
+    public CompletionPolicy(boolean settle, double positionTolerance, double headingTolerance,
+                            double velocityTolerance, double angVelTolerance, double correctionTimeout) {
+        this.settle = settle;
+        this.positionTolerance = positionTolerance;
+        this.headingTolerance = headingTolerance;
+        this.velocityTolerance = velocityTolerance;
+        this.angVelTolerance = angVelTolerance;
+        this.correctionTimeout = correctionTimeout;
+    }
+
+    /**
+     * Settles with the tolerances currently in {@link MecanumDrive#PARAMS}.
+     */
+    public static CompletionPolicy settle() {
+        MecanumDrive.Params p = MecanumDrive.PARAMS;
+        return new CompletionPolicy(true, p.positionTolerance, p.headingTolerance,
+                p.velocityTolerance, p.angVelTolerance, p.correctionTimeout);
+    }
+
+    /**
+     * @param overtime time since the profile ended (in seconds)
+     */
+    public boolean isDone(double overtime, double targetX, double targetY, double targetHeading,
+                          Pose2d pose, PoseVelocity2d vel) {
+        if (vel == null) {
+            return !settle || overtime >= correctionTimeout;
+        }
+        return isDone(overtime, targetX, targetY, targetHeading, pose, vel.linearVel.x, vel.linearVel.y, vel.angVel);
+    }
+
+    /**
+     * {@link #isDone(double, double, double, double, Pose2d, PoseVelocity2d)} with the velocity in
+     * primitives, so the followers don't build one every loop.
+     */
+    public boolean isDone(double overtime, double targetX, double targetY, double targetHeading,
+                          Pose2d pose, double velX, double velY, double angVel) {
+        if (!settle || overtime >= correctionTimeout) {
+            return true;
+        }
+
+        double dx = targetX - pose.position.x;
+        double dy = targetY - pose.position.y;
+        double dHeading = Math.IEEEremainder(targetHeading - pose.heading.toDouble(), 2 * Math.PI);
+        return dx * dx + dy * dy <= positionTolerance * positionTolerance
+                && Math.abs(dHeading) <= headingTolerance
+                && Math.hypot(velX, velY) <= velocityTolerance
+                && Math.abs(angVel) <= angVelTolerance;
+    }
+}
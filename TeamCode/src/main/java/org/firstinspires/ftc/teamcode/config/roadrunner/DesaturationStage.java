@@ -0,0 +1,121 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.acmerobotics.roadrunner.ftc.DownsampledWriter;
+
+import org.firstinspires.ftc.teamcode.config.roadrunner.messages.SaturationMessage;
+
+/**
+ * Keeps every wheel power inside [-1, 1] by giving up one motion component before the other, instead of
+ * letting the motors clip each wheel on its own (which skews the robot off the path).
+ * <p>
+ * With {@link Priority#HEADING_FIRST} the rotation part of the command is kept whole and the translation
+ * part is scaled down just enough to fit; rotation is only scaled once translation is gone entirely.
+ * {@link Priority#TRANSLATION_FIRST} is the other way around. Static friction is never scaled.
+ * <p>
+ * Saturated ticks are counted and logged to the "SATURATION" channel, so {@link MecanumDrive.Params#maxWheelVel}
+ * can be tuned from how often the profile asks for more than the battery has.
+ */
+public final class DesaturationStage implements WheelPowerStage {
+    public enum Priority {
+        HEADING_FIRST,
+        TRANSLATION_FIRST
+    }
+
+    private final DownsampledWriter saturationWriter = new DownsampledWriter("SATURATION", 50_000_000);
+    private final SaturationMessage saturationMessage = new SaturationMessage(0, 1, 1, 0, 0);
+
+    private final double[] base = new double[4];
+
+    private long ticks, saturatedTicks;
+    private double requestedPower, translationScale = 1, rotationScale = 1;
+    private double peakPower;
+
+    @Override
+    public void apply(DriveController controller, double[] powers) {
+        ticks++;
+
+        double max = 0;
+        for (double power : powers) {
+            max = Math.max(max, Math.abs(power));
+        }
+        requestedPower = max;
+        if (max <= 1) {
+            translationScale = 1;
+            rotationScale = 1;
+            return;
+        }
+        saturatedTicks++;
+        peakPower = Math.max(peakPower, max);
+
+        boolean headingFirst = MecanumDrive.PARAMS.desaturationPriority == Priority.HEADING_FIRST;
+        double[] kept = headingFirst ? controller.rotationPowers : controller.translationPowers;
+        double[] shed = headingFirst ? controller.translationPowers : controller.rotationPowers;
+
+        for (int i = 0; i < 4; i++) {
+            base[i] = controller.staticPowers[i] + kept[i];
+        }
+        double keptScale = 1;
+        double shedScale = maxScale(base, shed);
+        if (shedScale < 0) {
+            // the kept component doesn't fit on its own either
+            shedScale = 0;
+            keptScale = Math.max(0, maxScale(controller.staticPowers, kept));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            powers[i] = controller.staticPowers[i] + keptScale * kept[i] + shedScale * shed[i];
+            // only reachable if static friction alone saturates
+            powers[i] = Math.max(-1, Math.min(1, powers[i]));
+        }
+
+        translationScale = headingFirst ? shedScale : keptScale;
+        rotationScale = headingFirst ? keptScale : shedScale;
+        saturationWriter.write(saturationMessage.set(
+                requestedPower, translationScale, rotationScale, saturatedTicks, ticks));
+    }
+
+    /**
+     * Largest s in [0, 1] with |base + s * delta| <= 1 on every wheel, or -1 if base alone doesn't fit.
+     */
+    private static double maxScale(double[] base, double[] delta) {
+        double s = 1;
+        for (int i = 0; i < 4; i++) {
+            double b = base[i], d = delta[i];
+            if (Math.abs(b) > 1) {
+                return -1;
+            }
+            if (d > 0) {
+                s = Math.min(s, (1 - b) / d);
+            } else if (d < 0) {
+                s = Math.min(s, (-1 - b) / d);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Fraction of ticks that needed desaturating.
+     */
+    public double getSaturatedFraction() {
+        return ticks == 0 ? 0 : (double) saturatedTicks / ticks;
+    }
+
+    public long getSaturatedTicks() {
+        return saturatedTicks;
+    }
+
+    public void reset() {
+        ticks = 0;
+        saturatedTicks = 0;
+        peakPower = 0;
+    }
+
+    public void addTelemetry(TelemetryPacket p) {
+        p.put("saturation/requested power", requestedPower);
+        p.put("saturation/peak power", peakPower);
+        p.put("saturation/translation scale", translationScale);
+        p.put("saturation/rotation scale", rotationScale);
+        p.put("saturation/saturated (%)", 100 * getSaturatedFraction());
+    }
+}
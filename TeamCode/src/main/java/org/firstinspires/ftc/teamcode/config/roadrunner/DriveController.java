@@ -0,0 +1,197 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.roadrunner.DualNum;
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.Pose2dDual;
+import com.acmerobotics.roadrunner.PoseVelocity2d;
+import com.acmerobotics.roadrunner.Time;
+
+/**
+ * Allocation-free version of the HolonomicController -> MecanumKinematics -> MotorFeedforward chain
+ * that the trajectory followers used to rebuild on every loop.
+ * <p>
+ * The gains and feedforward coefficients are a snapshot of {@link MecanumDrive#PARAMS}; {@link #refresh()}
+ * only rebuilds them when a value was changed from the dashboard. Every intermediate lives in a field,
+ * so {@link #compute} produces no garbage.
+ */
+public final class DriveController {
+    public static final int LEFT_FRONT = 0, LEFT_BACK = 1, RIGHT_BACK = 2, RIGHT_FRONT = 3;
+
+    // the PARAMS values the coefficients were built from
+    private MecanumDrive.Params params;
+    private double inPerTick = Double.NaN, lateralInPerTick, trackWidthTicks;
+    private double kS, kV, kA;
+    private double axialGain, lateralGain, headingGain;
+    private double axialVelGain, lateralVelGain, headingVelGain;
+
+    // derived kinematics and feedforward coefficients
+    private double trackWidth, lateralMultiplier;
+    private double kVTicks, kATicks;
+
+    // target state in the world frame
+    public double targetX, targetY, targetHeading;
+    public double targetVelX, targetVelY, targetAngVel;
+    public double targetAccelX, targetAccelY, targetAngAccel;
+
+    // pose error in the robot frame from the last compute(), same as target.minusExp(pose)
+    public double errorX, errorY, errorHeading;
+
+    // robot frame command from the last compute()
+    public double forwardVel, forwardAccel, lateralVel, lateralAccel, angVel, angAccel;
+
+    // per-wheel values from the last compute(), indexed by LEFT_FRONT..RIGHT_FRONT
+    public final double[] wheelVels = new double[4];
+    public final double[] wheelAccels = new double[4];
+    public final double[] wheelPowers = new double[4];
+
+    // wheelPowers split into the static friction, translation and rotation parts, so a stage can scale the
+    // motion components separately (wheelPowers = static + translation + rotation)
+    public final double[] staticPowers = new double[4];
+    public final double[] translationPowers = new double[4];
+    public final double[] rotationPowers = new double[4];
+
+    /**
+     * Re-reads {@link MecanumDrive#PARAMS} and rebuilds the coefficients if anything changed.
+     * @return true if the coefficients were rebuilt
+     */
+    public boolean refresh() {
+        MecanumDrive.Params p = MecanumDrive.PARAMS;
+        if (p == params
+                && p.inPerTick == inPerTick
+                && p.lateralInPerTick == lateralInPerTick
+                && p.trackWidthTicks == trackWidthTicks
+                && p.kS == kS && p.kV == kV && p.kA == kA
+                && p.axialGain == axialGain
+                && p.lateralGain == lateralGain
+                && p.headingGain == headingGain
+                && p.axialVelGain == axialVelGain
+                && p.lateralVelGain == lateralVelGain
+                && p.headingVelGain == headingVelGain) {
+            return false;
+        }
+
+        params = p;
+        inPerTick = p.inPerTick;
+        lateralInPerTick = p.lateralInPerTick;
+        trackWidthTicks = p.trackWidthTicks;
+        kS = p.kS;
+        kV = p.kV;
+        kA = p.kA;
+        axialGain = p.axialGain;
+        lateralGain = p.lateralGain;
+        headingGain = p.headingGain;
+        axialVelGain = p.axialVelGain;
+        lateralVelGain = p.lateralVelGain;
+        headingVelGain = p.headingVelGain;
+
+        trackWidth = inPerTick * trackWidthTicks;
+        lateralMultiplier = inPerTick / lateralInPerTick;
+        kVTicks = kV / inPerTick;
+        kATicks = kA / inPerTick;
+
+        return true;
+    }
+
+    public void setTarget(Pose2dDual<Time> target) {
+        DualNum<Time> x = target.position.x, y = target.position.y;
+        DualNum<Time> real = target.heading.real, imag = target.heading.imag;
+
+        // heading derivatives of a unit complex number: w = r i' - i r', a = r i'' - i r''
+        setTarget(
+                x.get(0), y.get(0), Math.atan2(imag.get(0), real.get(0)),
+                x.get(1), y.get(1), real.get(0) * imag.get(1) - imag.get(0) * real.get(1),
+                x.get(2), y.get(2), real.get(0) * imag.get(2) - imag.get(0) * real.get(2));
+    }
+
+    public void setTarget(double x, double y, double heading,
+                          double velX, double velY, double angVel,
+                          double accelX, double accelY, double angAccel) {
+        targetX = x;
+        targetY = y;
+        targetHeading = heading;
+        targetVelX = velX;
+        targetVelY = velY;
+        targetAngVel = angVel;
+        targetAccelX = accelX;
+        targetAccelY = accelY;
+        targetAngAccel = angAccel;
+    }
+
+    /**
+     * Runs the controller, inverse kinematics and feedforward against the current target.
+     * The results are left in the public fields and {@link #wheelPowers}.
+     */
+    public void compute(Pose2d pose, PoseVelocity2d robotVelRobot, double voltage) {
+        computeCommand(pose, robotVelRobot);
+        computeWheelPowers(voltage);
+    }
+
+    /**
+     * Controller half of {@link #compute}: fills in the pose error and the robot frame command.
+     */
+    public void computeCommand(Pose2d pose, PoseVelocity2d robotVelRobot) {
+        computeCommand(pose, robotVelRobot.linearVel.x, robotVelRobot.linearVel.y, robotVelRobot.angVel);
+    }
+
+    /**
+     * {@link #computeCommand(Pose2d, PoseVelocity2d)} with the robot frame velocity in primitives.
+     */
+    public void computeCommand(Pose2d pose, double robotVelX, double robotVelY, double robotAngVel) {
+        double cos = Math.cos(targetHeading), sin = Math.sin(targetHeading);
+
+        // target velocity and acceleration rotated into the target frame; like HolonomicController the
+        // rotation is held constant, so there's no w x v term
+        double targetVelForward = cos * targetVelX + sin * targetVelY;
+        double targetVelLateral = -sin * targetVelX + cos * targetVelY;
+        double targetAccelForward = cos * targetAccelX + sin * targetAccelY;
+        double targetAccelLateral = -sin * targetAccelX + cos * targetAccelY;
+
+        double real = pose.heading.real, imag = pose.heading.imag;
+        double dx = targetX - pose.position.x, dy = targetY - pose.position.y;
+        errorX = real * dx + imag * dy;
+        errorY = -imag * dx + real * dy;
+        errorHeading = Math.atan2(real * sin - imag * cos, real * cos + imag * sin);
+
+        forwardVel = targetVelForward + axialGain * errorX
+                + axialVelGain * (targetVelForward - robotVelX);
+        lateralVel = targetVelLateral + lateralGain * errorY
+                + lateralVelGain * (targetVelLateral - robotVelY);
+        angVel = targetAngVel + headingGain * errorHeading
+                + headingVelGain * (targetAngVel - robotAngVel);
+        forwardAccel = targetAccelForward;
+        lateralAccel = targetAccelLateral;
+        angAccel = targetAngAccel;
+    }
+
+    /**
+     * Inverse kinematics and feedforward half of {@link #compute}, using the last command.
+     */
+    public void computeWheelPowers(double voltage) {
+        wheelVels[LEFT_FRONT] = forwardVel - lateralVel * lateralMultiplier - angVel * trackWidth;
+        wheelVels[LEFT_BACK] = forwardVel + lateralVel * lateralMultiplier - angVel * trackWidth;
+        wheelVels[RIGHT_BACK] = forwardVel - lateralVel * lateralMultiplier + angVel * trackWidth;
+        wheelVels[RIGHT_FRONT] = forwardVel + lateralVel * lateralMultiplier + angVel * trackWidth;
+
+        wheelAccels[LEFT_FRONT] = forwardAccel - lateralAccel * lateralMultiplier - angAccel * trackWidth;
+        wheelAccels[LEFT_BACK] = forwardAccel + lateralAccel * lateralMultiplier - angAccel * trackWidth;
+        wheelAccels[RIGHT_BACK] = forwardAccel - lateralAccel * lateralMultiplier + angAccel * trackWidth;
+        wheelAccels[RIGHT_FRONT] = forwardAccel + lateralAccel * lateralMultiplier + angAccel * trackWidth;
+
+        double forward = (kVTicks * forwardVel + kATicks * forwardAccel) / voltage;
+        double lateral = (kVTicks * lateralVel + kATicks * lateralAccel) * lateralMultiplier / voltage;
+        double turn = (kVTicks * angVel + kATicks * angAccel) * trackWidth / voltage;
+        translationPowers[LEFT_FRONT] = forward - lateral;
+        translationPowers[LEFT_BACK] = forward + lateral;
+        translationPowers[RIGHT_BACK] = forward - lateral;
+        translationPowers[RIGHT_FRONT] = forward + lateral;
+        rotationPowers[LEFT_FRONT] = -turn;
+        rotationPowers[LEFT_BACK] = -turn;
+        rotationPowers[RIGHT_BACK] = turn;
+        rotationPowers[RIGHT_FRONT] = turn;
+
+        for (int i = 0; i < 4; i++) {
+            staticPowers[i] = kS * Math.signum(wheelVels[i]) / voltage;
+            wheelPowers[i] = staticPowers[i] + translationPowers[i] + rotationPowers[i];
+        }
+    }
+}
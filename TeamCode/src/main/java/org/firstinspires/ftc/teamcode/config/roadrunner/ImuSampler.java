@@ -0,0 +1,205 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.acmerobotics.roadrunner.ftc.LazyImu;
+import com.qualcomm.robotcore.hardware.IMU;
+
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.YawPitchRollAngles;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Polls the IMU on its own thread, so nothing on the op mode thread waits on the (slow) I2C read of the
+ * orientation. {@link #getHeading()} is a plain volatile read of the newest sample, and
+ * {@link #headingAt(long)} interpolates between the recent samples for a {@link System#nanoTime()}
+ * timestamp, extrapolating a little past the newest one with the yaw rate.
+ * <p>
+ * Samples are stamped with the SDK's acquisition time and unwrapped, so interpolating across ±π is fine.
+ * {@link #resetYaw()} only moves a software offset; it doesn't touch the IMU.
+ */
+@Config
+public final class ImuSampler extends PollingService {
+    public static class Params {
+        // both the BNO055 and the BHI260 fuse at 100 Hz, reading faster just repeats samples
+        public double rateHz = 100;
+        // how far past the newest sample headingAt() extrapolates (in seconds)
+        public double maxExtrapolation = 0.05;
+    }
+
+    public static Params PARAMS = new Params();
+
+    private static final int CAPACITY = 32;
+
+    private final LazyImu lazyImu;
+    private IMU imu;
+
+    // ring of unwrapped yaws, guarded by this
+    private final long[] timestamps = new long[CAPACITY];
+    private final double[] yaws = new double[CAPACITY];
+    private int head, size;
+
+    private volatile YawPitchRollAngles angles;
+    private volatile double yaw, yawRate;
+    private volatile long sampleNanos;
+    private volatile double yawOffset;
+    // IMU reads so far, each is an I2C transaction on the hub
+    private volatile long samples;
+
+    // set by onStart() (after the previous thread has exited), otherwise only touched by the sampling thread
+    private double lastRawYaw;
+
+    public ImuSampler(LazyImu lazyImu) {
+        super("ImuSampler");
+        this.lazyImu = lazyImu;
+    }
+
+    public ImuSampler(IMU imu) {
+        super("ImuSampler");
+        this.lazyImu = null;
+        this.imu = imu;
+    }
+
+    @Override
+    protected void onStart() {
+        if (imu == null) {
+            imu = lazyImu.get();
+        }
+
+        // the first sample is taken here, so getHeading() is valid as soon as start() returns
+        YawPitchRollAngles first = imu.getRobotYawPitchRollAngles();
+        lastRawYaw = first.getYaw(AngleUnit.RADIANS);
+        synchronized (this) {
+            size = 0;
+            head = 0;
+        }
+        sampleNanos = 0;
+        record(first, lastRawYaw, stamp(first, System.nanoTime()));
+    }
+
+    @Override
+    protected double getRateHz() {
+        return PARAMS.rateHz;
+    }
+
+    @Override
+    protected boolean sample(AtomicBoolean stop) {
+        long start = System.nanoTime();
+        YawPitchRollAngles sample = imu.getRobotYawPitchRollAngles();
+        long readNanos = System.nanoTime();
+        if (stop.get()) {
+            return false;
+        }
+
+        double raw = sample.getYaw(AngleUnit.RADIANS);
+        double unwrapped = yaw + Math.IEEEremainder(raw - lastRawYaw, 2 * Math.PI);
+        lastRawYaw = raw;
+        // the midpoint of the read is the best guess without an acquisition time
+        record(sample, unwrapped, stamp(sample, (start + readNanos) / 2));
+        return true;
+    }
+
+    private static long stamp(YawPitchRollAngles sample, long fallback) {
+        long acquired = sample.getAcquisitionTime();
+        return acquired != 0 ? acquired : fallback;
+    }
+
+    private void record(YawPitchRollAngles sample, double unwrapped, long nanos) {
+        samples++;
+        synchronized (this) {
+            timestamps[head] = nanos;
+            yaws[head] = unwrapped;
+            head = (head + 1) % CAPACITY;
+            if (size < CAPACITY) {
+                size++;
+            }
+        }
+
+        if (sampleNanos != 0 && nanos > sampleNanos) {
+            yawRate = (unwrapped - yaw) / ((nanos - sampleNanos) * 1e-9);
+        }
+        angles = sample;
+        yaw = unwrapped;
+        sampleNanos = nanos;
+    }
+
+    /**
+     * Newest heading (in radians, in [-π, π]). Never blocks on hardware.
+     */
+    public double getHeading() {
+        return Math.IEEEremainder(yaw - yawOffset, 2 * Math.PI);
+    }
+
+    /**
+     * Newest raw orientation from the IMU, ignoring {@link #resetYaw()}.
+     */
+    public YawPitchRollAngles getAngles() {
+        return angles;
+    }
+
+    /**
+     * Yaw rate from the last two samples (in radians per second).
+     */
+    public double getYawRate() {
+        return yawRate;
+    }
+
+    public long getSampleNanos() {
+        return sampleNanos;
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Heading at a {@link System#nanoTime()} timestamp (in radians, in [-π, π]), interpolated between
+     * samples. Before the oldest sample this is the oldest heading; past the newest, it's extrapolated by
+     * at most {@link Params#maxExtrapolation}.
+     */
+    public double headingAt(long timestampNanos) {
+        double unwrapped;
+        synchronized (this) {
+            int newest = (head - 1 + CAPACITY) % CAPACITY;
+            int oldest = (head - size + CAPACITY) % CAPACITY;
+            if (timestampNanos >= timestamps[newest]) {
+                double dt = Math.min((timestampNanos - timestamps[newest]) * 1e-9, PARAMS.maxExtrapolation);
+                unwrapped = yaws[newest] + yawRate * dt;
+            } else if (timestampNanos <= timestamps[oldest]) {
+                unwrapped = yaws[oldest];
+            } else {
+                // newest first, the one we want is usually recent
+                int b = newest;
+                int a = (b - 1 + CAPACITY) % CAPACITY;
+                while (timestamps[a] > timestampNanos) {
+                    b = a;
+                    a = (a - 1 + CAPACITY) % CAPACITY;
+                }
+                long span = timestamps[b] - timestamps[a];
+                double s = span > 0 ? (double) (timestampNanos - timestamps[a]) / span : 0;
+                unwrapped = yaws[a] + (yaws[b] - yaws[a]) * s;
+            }
+        }
+        return Math.IEEEremainder(unwrapped - yawOffset, 2 * Math.PI);
+    }
+
+    /**
+     * Makes the current heading zero.
+     */
+    public void resetYaw() {
+        yawOffset = yaw;
+    }
+
+    /**
+     * Makes the current heading the given one (in radians).
+     */
+    public void setHeading(double heading) {
+        yawOffset = yaw - heading;
+    }
+
+    public void addTelemetry(TelemetryPacket p) {
+        p.put("imu period (ms)", getSamplePeriodMs());
+        p.put("imu staleness (ms)", (System.nanoTime() - sampleNanos) * 1e-6);
+    }
+}
@@ -0,0 +1,172 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.acmerobotics.roadrunner.ftc.FlightRecorder;
+
+import org.firstinspires.ftc.teamcode.config.roadrunner.messages.LoopTimingMessage;
+
+/**
+ * Per-phase timing of the drive loop.
+ * <p>
+ * Wrap a phase with {@code long t = profiler.start(); ... profiler.stop(Phase.X, t);}. Durations go into
+ * preallocated {@link LatencyHistogram}s, so recording costs two {@link System#nanoTime()} calls and a few
+ * integer ops and can stay on during matches. Percentiles are only recomputed every
+ * {@link #SUMMARY_PERIOD_NANOS}, and written to FlightRecorder at the same rate.
+ * <p>
+ * The histograms are windowed: every {@link #WINDOW_SECONDS} the current one becomes the previous one
+ * and a fresh one starts, and the summary covers those two. So what's reported is the last one to two
+ * windows, and init or a one-off stall (a cache miss build, a GC) ages out instead of staying in the
+ * max for the rest of the run.
+ */
+@Config
+public final class LoopProfiler {
+    public static boolean ENABLED = true;
+    public static double WINDOW_SECONDS = 5;
+
+    public enum Phase {
+        LOOP("loop"),
+        UPDATE_POSE_ESTIMATE("updatePoseEstimate"),
+        LOCALIZER("localizer"),
+        CONTROLLER("controller"),
+        FEEDFORWARD("feedforward"),
+        MOTOR_WRITE("motorWrite"),
+        DRAWING("drawing");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final long SUMMARY_PERIOD_NANOS = 500_000_000;
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+    private final LatencyHistogram[] previous = new LatencyHistogram[PHASES.length];
+    // previous + current, rebuilt for every summary
+    private final LatencyHistogram merged = new LatencyHistogram();
+    private long windowStart = System.nanoTime();
+
+    // latest summary in milliseconds, [phase][p50, p95, p99, max]
+    private final double[][] summary = new double[PHASES.length][4];
+    private final String[][] keys = new String[PHASES.length][4];
+    private long nextSummary;
+
+    private long lastLoopStart = -1;
+
+    public LoopProfiler() {
+        for (int i = 0; i < PHASES.length; i++) {
+            histograms[i] = new LatencyHistogram();
+            previous[i] = new LatencyHistogram();
+            String prefix = "timing/" + PHASES[i].label;
+            keys[i][0] = prefix + " p50 (ms)";
+            keys[i][1] = prefix + " p95 (ms)";
+            keys[i][2] = prefix + " p99 (ms)";
+            keys[i][3] = prefix + " max (ms)";
+        }
+    }
+
+    public long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since startNanos against the phase.
+     * @return the current time, so consecutive phases can chain off each other
+     */
+    public long stop(Phase phase, long startNanos) {
+        if (!ENABLED) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Marks the top of a loop; the time between marks is recorded as {@link Phase#LOOP}.
+     */
+    public void markLoop() {
+        if (!ENABLED) {
+            return;
+        }
+        long now = System.nanoTime();
+        // ignore the gap across an action boundary or a pause
+        if (lastLoopStart >= 0 && now - lastLoopStart < 1_000_000_000) {
+            histograms[Phase.LOOP.ordinal()].record(now - lastLoopStart);
+        }
+        lastLoopStart = now;
+    }
+
+    /**
+     * The current window's histogram for the phase.
+     */
+    public LatencyHistogram histogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    public void reset() {
+        for (int i = 0; i < PHASES.length; i++) {
+            histograms[i].reset();
+            previous[i].reset();
+        }
+        lastLoopStart = -1;
+        windowStart = System.nanoTime();
+        nextSummary = 0;
+    }
+
+    private void rotate(long now) {
+        if (now - windowStart < (long) (WINDOW_SECONDS * 1e9)) {
+            return;
+        }
+        windowStart = now;
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram h = previous[i];
+            h.reset();
+            previous[i] = histograms[i];
+            histograms[i] = h;
+        }
+    }
+
+    private void summarize() {
+        long now = System.nanoTime();
+        if (now < nextSummary) {
+            return;
+        }
+        nextSummary = now + SUMMARY_PERIOD_NANOS;
+        rotate(now);
+
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram h = merged;
+            h.reset();
+            h.add(previous[i]);
+            h.add(histograms[i]);
+            summary[i][0] = h.getValueAtPercentile(50) * 1e-6;
+            summary[i][1] = h.getValueAtPercentile(95) * 1e-6;
+            summary[i][2] = h.getValueAtPercentile(99) * 1e-6;
+            summary[i][3] = h.getMaxValue() * 1e-6;
+
+            if (h.getTotalCount() > 0) {
+                FlightRecorder.write("LOOP_TIMING", new LoopTimingMessage(PHASES[i].label,
+                        h.getTotalCount(), summary[i][0], summary[i][1], summary[i][2], summary[i][3]));
+            }
+        }
+    }
+
+    public void addTelemetry(TelemetryPacket p) {
+        if (!ENABLED) {
+            return;
+        }
+        summarize();
+        for (int i = 0; i < PHASES.length; i++) {
+            if (histograms[i].getTotalCount() == 0 && previous[i].getTotalCount() == 0) {
+                continue;
+            }
+            for (int j = 0; j < 4; j++) {
+                p.put(keys[i][j], summary[i][j]);
+            }
+        }
+    }
+}
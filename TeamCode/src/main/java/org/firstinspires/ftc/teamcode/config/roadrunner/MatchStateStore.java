@@ -0,0 +1,212 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.roadrunner.Pose2d;
+
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Hands the robot's state from auto to teleop: where the robot is, which way it faced at the start of
+ * auto (away from the drivers, so field centric zero) and where the lift and gear are relative to where
+ * their encoders were zeroed in auto. Teleop zeroes the encoders again wherever the mechanisms ended up,
+ * so their presets need that offset.
+ * <p>
+ * The state lives in a small memory-mapped file, so a write is a handful of stores into the page cache
+ * and cheap enough for every loop, and it survives the app being restarted between auto and teleop
+ * (not a power cycle though, nothing forces it to disk). There are two record slots written
+ * alternately, each with a sequence number and a checksum; a write that's torn by the app dying leaves
+ * the other slot intact, and {@link #read} takes the newest slot that checks out.
+ * <p>
+ * Not every writer knows the heading: only auto and field centric teleop track it, the other teleops just
+ * carry it along with the lift and gear. So the heading has its own wall clock time, only refreshed by
+ * writers that set {@link State#headingTracked}, and {@link State#hasHeading()} ages it out on that.
+ * <p>
+ * Slot layout: sequence, wall clock time (ms), x, y, heading, start heading, lift ticks, gear ticks,
+ * heading wall clock time (ms), checksum of the rest.
+ */
+@Config
+public final class MatchStateStore {
+    public static class Params {
+        // older state than this is from some other match (in seconds)
+        public double maxAge = 300;
+    }
+
+    public static Params PARAMS = new Params();
+
+    private static final int MAGIC = 0x4d545354; // "MTST"
+    // bump when the slot layout changes
+    private static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int SLOT_BYTES = 72;
+    private static final int CHECKSUM = 64;
+    private static final int FILE_BYTES = HEADER_BYTES + 2 * SLOT_BYTES;
+
+    public static final class State {
+        public double x, y, heading;
+        public double startHeading;
+        public int liftTicks, gearTicks;
+        // System.currentTimeMillis() of the write, the clock that survives a restart
+        public long wallMillis;
+        // set by writers that keep the heading current; the others write back what they read
+        public boolean headingTracked;
+        // wallMillis of the last write with headingTracked, 0 if there was none
+        public long headingWallMillis;
+
+        /**
+         * Whether heading (and so the driver heading) came from something tracking it, recently enough to
+         * trust.
+         */
+        public boolean hasHeading() {
+            long age = System.currentTimeMillis() - headingWallMillis;
+            return headingWallMillis != 0 && age >= 0 && age <= PARAMS.maxAge * 1000;
+        }
+
+        public Pose2d getPose() {
+            return new Pose2d(x, y, heading);
+        }
+
+        /**
+         * Heading relative to the start of auto, for field centric drive.
+         */
+        public double getDriverHeading() {
+            return Math.IEEEremainder(heading - startHeading, 2 * Math.PI);
+        }
+    }
+
+    private final File file;
+    private MappedByteBuffer mapped;
+    private long sequence;
+
+    public MatchStateStore() {
+        this(new File(AppUtil.FIRST_FOLDER, "match_state.bin"));
+    }
+
+    public MatchStateStore(File file) {
+        this.file = file;
+        open();
+    }
+
+    private void open() {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean fresh = raf.length() != FILE_BYTES;
+            if (fresh) {
+                raf.setLength(FILE_BYTES);
+            }
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+            if (fresh || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                // unknown contents, invalidate both slots
+                buf.putInt(0, MAGIC);
+                buf.putInt(4, VERSION);
+                for (int i = 0; i < FILE_BYTES - HEADER_BYTES; i += 8) {
+                    buf.putLong(HEADER_BYTES + i, 0);
+                }
+            }
+            mapped = buf;
+            sequence = Math.max(validSequence(0), validSequence(1));
+        } catch (IOException | RuntimeException e) {
+            // no storage; writes are dropped and reads find nothing
+            mapped = null;
+        }
+    }
+
+    public boolean isAvailable() {
+        return mapped != null;
+    }
+
+    /**
+     * Stores the state in the older slot. Doesn't allocate.
+     */
+    public void write(State state) {
+        if (mapped == null) {
+            return;
+        }
+        sequence++;
+        state.wallMillis = System.currentTimeMillis();
+        if (state.headingTracked) {
+            state.headingWallMillis = state.wallMillis;
+        }
+
+        int o = slotOffset((int) (sequence & 1));
+        // invalidate first, so a torn write can never look like the newest record
+        mapped.putLong(o, 0);
+        mapped.putLong(o + 8, state.wallMillis);
+        mapped.putDouble(o + 16, state.x);
+        mapped.putDouble(o + 24, state.y);
+        mapped.putDouble(o + 32, state.heading);
+        mapped.putDouble(o + 40, state.startHeading);
+        mapped.putInt(o + 48, state.liftTicks);
+        mapped.putInt(o + 52, state.gearTicks);
+        mapped.putLong(o + 56, state.headingWallMillis);
+        mapped.putLong(o + CHECKSUM, checksum(o, sequence));
+        mapped.putLong(o, sequence);
+    }
+
+    /**
+     * Copies the newest valid state into out.
+     * @return false if there's none, or it's older than {@link Params#maxAge}
+     */
+    public boolean read(State out) {
+        if (mapped == null) {
+            return false;
+        }
+        long a = validSequence(0), b = validSequence(1);
+        if (a == 0 && b == 0) {
+            return false;
+        }
+        int o = slotOffset(a > b ? 0 : 1);
+        long wallMillis = mapped.getLong(o + 8);
+        long age = System.currentTimeMillis() - wallMillis;
+        if (age < 0 || age > PARAMS.maxAge * 1000) {
+            return false;
+        }
+
+        out.wallMillis = wallMillis;
+        out.x = mapped.getDouble(o + 16);
+        out.y = mapped.getDouble(o + 24);
+        out.heading = mapped.getDouble(o + 32);
+        out.startHeading = mapped.getDouble(o + 40);
+        out.liftTicks = mapped.getInt(o + 48);
+        out.gearTicks = mapped.getInt(o + 52);
+        out.headingWallMillis = mapped.getLong(o + 56);
+        return true;
+    }
+
+    /**
+     * Forces the state to disk. Slow (a flash write), so not for the loop.
+     */
+    public void flush() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    // the slot's sequence if its checksum holds, otherwise 0
+    private long validSequence(int slot) {
+        int o = slotOffset(slot);
+        long seq = mapped.getLong(o);
+        if (seq == 0 || mapped.getLong(o + CHECKSUM) != checksum(o, seq)) {
+            return 0;
+        }
+        return seq;
+    }
+
+    private long checksum(int o, long seq) {
+        long h = 0xcbf29ce484222325L;
+        h = TrajectoryRecipe.mix(h, seq);
+        for (int i = 8; i < CHECKSUM; i += 8) {
+            h = TrajectoryRecipe.mix(h, mapped.getLong(o + i));
+        }
+        return h;
+    }
+}
@@ -8,12 +8,9 @@ import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
 import com.acmerobotics.roadrunner.*;
 import com.acmerobotics.roadrunner.AngularVelConstraint;
 import com.acmerobotics.roadrunner.DualNum;
-import com.acmerobotics.roadrunner.HolonomicController;
 import com.acmerobotics.roadrunner.MecanumKinematics;
 import com.acmerobotics.roadrunner.MinVelConstraint;
-import com.acmerobotics.roadrunner.MotorFeedforward;
 import com.acmerobotics.roadrunner.Pose2d;
-import com.acmerobotics.roadrunner.Pose2dDual;
 import com.acmerobotics.roadrunner.ProfileAccelConstraint;
 import com.acmerobotics.roadrunner.Time;
 import com.acmerobotics.roadrunner.TimeTrajectory;
@@ -30,27 +27,26 @@ import com.acmerobotics.roadrunner.ftc.LynxFirmware;
 import com.acmerobotics.roadrunner.ftc.OverflowEncoder;
 import com.acmerobotics.roadrunner.ftc.PositionVelocityPair;
 import com.acmerobotics.roadrunner.ftc.RawEncoder;
-import com.qualcomm.hardware.lynx.LynxModule;
 import com.qualcomm.hardware.rev.RevHubOrientationOnRobot;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.DcMotorEx;
 import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import com.qualcomm.robotcore.hardware.HardwareMap;
-import com.qualcomm.robotcore.hardware.IMU;
 import com.qualcomm.robotcore.hardware.Servo;
 import com.qualcomm.robotcore.hardware.VoltageSensor;
 
 import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
 import org.firstinspires.ftc.robotcore.external.navigation.YawPitchRollAngles;
+import org.firstinspires.ftc.teamcode.config.hardware.CachingHardware;
 import org.firstinspires.ftc.teamcode.opmode.archived.ancient.Drawing;
 import org.firstinspires.ftc.teamcode.config.roadrunner.messages.DriveCommandMessage;
 import org.firstinspires.ftc.teamcode.config.roadrunner.messages.MecanumCommandMessage;
 import org.firstinspires.ftc.teamcode.config.roadrunner.messages.MecanumLocalizerInputsMessage;
 import org.firstinspires.ftc.teamcode.config.roadrunner.messages.PoseMessage;
+import org.firstinspires.ftc.teamcode.config.roadrunner.messages.ThreeDeadWheelInputsMessage;
 
 import java.lang.Math;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 @Config
@@ -91,6 +87,19 @@ public class MecanumDrive {
         public double axialVelGain = 0;
         public double lateralVelGain = 0.0;
         public double headingVelGain = 0.0; // shared with turn
+
+        // end of path/turn tolerances for CompletionPolicy.settle()
+        public double positionTolerance = 1; // in inches
+        public double headingTolerance = Math.toRadians(2);
+        public double velocityTolerance = 2; // in inches per second
+        public double angVelTolerance = Math.toRadians(10);
+        public double correctionTimeout = 0.5; // in seconds
+
+        // which part of the command gives way when a wheel would need more than full power
+        public DesaturationStage.Priority desaturationPriority = DesaturationStage.Priority.HEADING_FIRST;
+
+        // spacing of baked trajectory tables (in seconds), see actionBuilder(Pose2d, Interpolation)
+        public double trajectorySampleStep = 0.01;
     }
 
     public static Params PARAMS = new Params();
@@ -107,29 +116,68 @@ public class MecanumDrive {
             ));
     public final AccelConstraint defaultAccelConstraint =
             new ProfileAccelConstraint(PARAMS.minProfileAccel, PARAMS.maxProfileAccel);
+    // the PARAMS values the kinematics and constraints above were built from, which dashboard edits made
+    // after construction don't reach; TrajectoryCache keys on these
+    final double[] constraintValues = {
+            PARAMS.inPerTick, PARAMS.lateralInPerTick, PARAMS.trackWidthTicks, PARAMS.maxWheelVel,
+            PARAMS.minProfileAccel, PARAMS.maxProfileAccel, PARAMS.maxAngVel, PARAMS.maxAngAccel
+    };
 
     public final DcMotorEx leftFront, leftBack, rightBack, rightFront, lift, gear;
 
     public final Servo clawL, clawR, pivot, droneServo;
 
+    public final BulkReadCoordinator bulkReads;
+
     public final VoltageSensor voltageSensor;
+    public final VoltageSampler voltageSampler;
 
     public final LazyImu lazyImu;
+    // started by whatever needs the heading, so the IMU isn't initialized otherwise
+    public final ImuSampler imuSampler;
 
     public final Localizer localizer;
     public Pose2d pose;
+    // the pose the dead wheel localizer last produced, to notice when pose is set from outside
+    private Pose2d integratedPose;
+    // what integratedPose was built from, so a robot that hasn't moved keeps the same object
+    private double integratedX, integratedY, integratedHeading;
+
+    // robot frame velocity measured by the last updatePose()
+    public double velX, velY, angVel;
+
+    private OdometryService odometry;
+    private final OdometryService.Snapshot odometrySnapshot = new OdometryService.Snapshot();
+    private final ThreeDeadWheelInputsMessage odometryInputsMessage = new ThreeDeadWheelInputsMessage();
+    private long lastLoggedSample;
 
-    public final LinkedList<Pose2d> poseHistory = new LinkedList<>();
+    public final PoseHistory poseHistory = new PoseHistory(100);
+
+    public final LoopProfiler profiler = new LoopProfiler();
+
+    public final DesaturationStage desaturation = new DesaturationStage();
+    public final DriveCommandPipeline commandPipeline = new DriveCommandPipeline();
+
+    // picked up by every follow/turn action built from here on
+    public CompletionPolicy completionPolicy = CompletionPolicy.TIMED;
+
+    // if set, every pose update also records the pose and the lift/gear positions for teleop
+    public MatchStateStore matchState;
+    private final MatchStateStore.State matchStateRecord = new MatchStateStore.State();
 
     private final DownsampledWriter estimatedPoseWriter = new DownsampledWriter("ESTIMATED_POSE", 50_000_000);
     private final DownsampledWriter targetPoseWriter = new DownsampledWriter("TARGET_POSE", 50_000_000);
     private final DownsampledWriter driveCommandWriter = new DownsampledWriter("DRIVE_COMMAND", 50_000_000);
     private final DownsampledWriter mecanumCommandWriter = new DownsampledWriter("MECANUM_COMMAND", 50_000_000);
 
+    // reused by the followers so logging doesn't allocate every loop
+    private final PoseMessage estimatedPoseMessage = new PoseMessage(0, 0, 0);
+    private final PoseMessage targetPoseMessage = new PoseMessage(0, 0, 0);
+    private final DriveCommandMessage driveCommandMessage = new DriveCommandMessage(0, 0, 0, 0, 0, 0);
+    private final MecanumCommandMessage mecanumCommandMessage = new MecanumCommandMessage(0, 0, 0, 0, 0);
+
     public class DriveLocalizer implements Localizer {
         public final Encoder leftFront, leftBack, rightBack, rightFront;
-        public final IMU imu;
-
         private int lastLeftFrontPos, lastLeftBackPos, lastRightBackPos, lastRightFrontPos;
         private Rotation2d lastHeading;
         private boolean initialized;
@@ -140,7 +188,7 @@ public class MecanumDrive {
             rightBack = new OverflowEncoder(new RawEncoder(MecanumDrive.this.rightBack));
             rightFront = new OverflowEncoder(new RawEncoder(MecanumDrive.this.rightFront));
 
-            imu = lazyImu.get();
+            imuSampler.start();
 
             // TODO: reverse encoders if needed
             leftFront.setDirection(DcMotorSimple.Direction.REVERSE);
@@ -153,7 +201,7 @@ public class MecanumDrive {
             PositionVelocityPair rightBackPosVel = rightBack.getPositionAndVelocity();
             PositionVelocityPair rightFrontPosVel = rightFront.getPositionAndVelocity();
 
-            YawPitchRollAngles angles = imu.getRobotYawPitchRollAngles();
+            YawPitchRollAngles angles = imuSampler.getAngles();
 
             FlightRecorder.write("MECANUM_LOCALIZER_INPUTS", new MecanumLocalizerInputsMessage(
                     leftFrontPosVel, leftBackPosVel, rightBackPosVel, rightFrontPosVel, angles));
@@ -212,26 +260,26 @@ public class MecanumDrive {
 
     public MecanumDrive(HardwareMap hardwareMap, Pose2d pose) {
         this.pose = pose;
+        matchStateRecord.startHeading = pose.heading.toDouble();
+        matchStateRecord.headingTracked = true;
 
         LynxFirmware.throwIfModulesAreOutdated(hardwareMap);
 
-        for (LynxModule module : hardwareMap.getAll(LynxModule.class)) {
-            module.setBulkCachingMode(LynxModule.BulkCachingMode.AUTO);
-        }
+        bulkReads = new BulkReadCoordinator(hardwareMap);
 
         // TODO: make sure your config has motors with these names (or change them)
         //   see https://ftc-docs.firstinspires.org/en/latest/hardware_and_software_configuration/configuring/index.html
-        leftFront = hardwareMap.get(DcMotorEx.class, "lF");
-        leftBack = hardwareMap.get(DcMotorEx.class, "lB");
-        rightBack = hardwareMap.get(DcMotorEx.class, "rB");
-        rightFront = hardwareMap.get(DcMotorEx.class, "rF");
-        lift = hardwareMap.get(DcMotorEx.class, "lift");//0
-        gear = hardwareMap.get(DcMotorEx.class, "gear");//1
-        pivot = hardwareMap.get(Servo.class, "pivot");
+        leftFront = CachingHardware.motor(hardwareMap, "lF");
+        leftBack = CachingHardware.motor(hardwareMap, "lB");
+        rightBack = CachingHardware.motor(hardwareMap, "rB");
+        rightFront = CachingHardware.motor(hardwareMap, "rF");
+        lift = CachingHardware.motor(hardwareMap, "lift");//0
+        gear = CachingHardware.motor(hardwareMap, "gear");//1
+        pivot = CachingHardware.servo(hardwareMap, "pivot");
         //claw = hardwareMap.get(Servo.class, "claw");
-        droneServo = hardwareMap.get(Servo.class, "droneServo");
-        clawL = hardwareMap.get(Servo.class, "clawL");
-        clawR = hardwareMap.get(Servo.class, "clawR");
+        droneServo = CachingHardware.servo(hardwareMap, "droneServo");
+        clawL = CachingHardware.servo(hardwareMap, "clawL");
+        clawR = CachingHardware.servo(hardwareMap, "clawR");
 
         leftFront.setDirection(DcMotor.Direction.REVERSE);
         leftBack.setDirection(DcMotor.Direction.REVERSE);
@@ -256,37 +304,172 @@ public class MecanumDrive {
         //   see https://ftc-docs.firstinspires.org/en/latest/hardware_and_software_configuration/configuring/index.html
         lazyImu = new LazyImu(hardwareMap, "imu", new RevHubOrientationOnRobot(
                 PARAMS.logoFacingDirection, PARAMS.usbFacingDirection));
+        imuSampler = new ImuSampler(lazyImu);
 
         voltageSensor = hardwareMap.voltageSensor.iterator().next();
+        voltageSampler = new VoltageSampler(voltageSensor);
+        voltageSampler.start();
 
         localizer = new ThreeDeadWheelLocalizer(hardwareMap, PARAMS.inPerTick);
 
+        bulkReads.addTransactionSource("writes", CachingHardware::getSentWrites);
+        bulkReads.addTransactionSource("voltage reads", voltageSampler::getSampleCount);
+        bulkReads.addTransactionSource("imu reads", imuSampler::getSampleCount);
+
         FlightRecorder.write("MECANUM_PARAMS", PARAMS);
     }
 
     public void setDrivePowers(PoseVelocity2d powers) {
-        MecanumKinematics.WheelVelocities<Time> wheelVels = new MecanumKinematics(1).inverse(
-                PoseVelocity2dDual.constant(powers, 1));
+        setDrivePowers(powers.linearVel.x, powers.linearVel.y, powers.angVel);
+    }
+
+    /**
+     * Same as {@link #setDrivePowers(PoseVelocity2d)} without building any objects, for teleop loops.
+     * All three are powers in [-1, 1]; the wheels are scaled down together if one of them would go over.
+     */
+    public void setDrivePowers(double axial, double lateral, double turn) {
+        // MecanumKinematics(1).inverse()
+        double leftFrontPower = axial - lateral - turn;
+        double leftBackPower = axial + lateral - turn;
+        double rightBackPower = axial - lateral + turn;
+        double rightFrontPower = axial + lateral + turn;
+
+        double maxPowerMag = Math.max(1, Math.max(
+                Math.max(Math.abs(leftFrontPower), Math.abs(leftBackPower)),
+                Math.max(Math.abs(rightBackPower), Math.abs(rightFrontPower))));
+
+        leftFront.setPower(leftFrontPower / maxPowerMag);
+        leftBack.setPower(leftBackPower / maxPowerMag);
+        rightBack.setPower(rightBackPower / maxPowerMag);
+        rightFront.setPower(rightFrontPower / maxPowerMag);
+    }
+
+    /**
+     * Target -> controller -> inverse kinematics -> feedforward -> voltage compensation -> power stages ->
+     * motor write, run once per loop by every drive action. Set the target on {@link #controller}, then
+     * call {@link #update()}.
+     * <p>
+     * Only one drive action runs at a time, so they all share the drive's pipeline, and the
+     * {@link WheelPowerStage}s set here apply to all of them.
+     */
+    public final class DriveCommandPipeline {
+        // gains are only rebuilt when PARAMS changes
+        public final DriveController controller = new DriveController();
+
+        private WheelPowerStage[] stages = {desaturation};
+        // whether velX, velY and angVel were measured since reset()
+        private boolean measured;
+
+        public void setStages(WheelPowerStage... stages) {
+            this.stages = stages.clone();
+        }
+
+        /**
+         * Updates the pose estimate and drives toward the controller's current target. The measured
+         * velocity is left in {@link #velX}, {@link #velY} and {@link #angVel}.
+         */
+        public void update() {
+            controller.refresh();
+            targetPoseWriter.write(targetPoseMessage.set(
+                    controller.targetX, controller.targetY, controller.targetHeading));
+
+            updatePose();
+            measured = true;
+
+            long t0 = profiler.start();
+            controller.computeCommand(pose, velX, velY, angVel);
+            t0 = profiler.stop(LoopProfiler.Phase.CONTROLLER, t0);
+            double voltage = voltageSampler.getVoltage();
+            controller.computeWheelPowers(voltage);
+            double[] powers = controller.wheelPowers;
+            for (WheelPowerStage stage : stages) {
+                stage.apply(controller, powers);
+            }
+            profiler.stop(LoopProfiler.Phase.FEEDFORWARD, t0);
+            driveCommandWriter.write(driveCommandMessage.set(
+                    controller.forwardVel, controller.forwardAccel,
+                    controller.lateralVel, controller.lateralAccel,
+                    controller.angVel, controller.angAccel));
+            mecanumCommandWriter.write(mecanumCommandMessage.set(voltage,
+                    powers[DriveController.LEFT_FRONT], powers[DriveController.LEFT_BACK],
+                    powers[DriveController.RIGHT_BACK], powers[DriveController.RIGHT_FRONT]));
+
+            t0 = profiler.start();
+            leftFront.setPower(powers[DriveController.LEFT_FRONT]);
+            leftBack.setPower(powers[DriveController.LEFT_BACK]);
+            rightBack.setPower(powers[DriveController.RIGHT_BACK]);
+            rightFront.setPower(powers[DriveController.RIGHT_FRONT]);
+            profiler.stop(LoopProfiler.Phase.MOTOR_WRITE, t0);
+        }
+
+        public void stop() {
+            leftFront.setPower(0);
+            leftBack.setPower(0);
+            rightBack.setPower(0);
+            rightFront.setPower(0);
+        }
 
-        double maxPowerMag = 1;
-        for (DualNum<Time> power : wheelVels.all()) {
-            maxPowerMag = Math.max(maxPowerMag, power.value());
+        /**
+         * Velocity measured by the last {@link #update()} since {@link #reset()}, or null.
+         */
+        public PoseVelocity2d getLastVelocity() {
+            return measured ? new PoseVelocity2d(new Vector2d(velX, velY), angVel) : null;
+        }
+
+        /**
+         * Whether completion says the current target is reached, overtime seconds after the profile ended.
+         */
+        public boolean isDone(CompletionPolicy completion, double overtime) {
+            if (!measured) {
+                return completion.isDone(overtime, controller.targetX, controller.targetY,
+                        controller.targetHeading, pose, null);
+            }
+            return completion.isDone(overtime, controller.targetX, controller.targetY, controller.targetHeading,
+                    pose, velX, velY, angVel);
         }
 
-        leftFront.setPower(wheelVels.leftFront.get(0) / maxPowerMag);
-        leftBack.setPower(wheelVels.leftBack.get(0) / maxPowerMag);
-        rightBack.setPower(wheelVels.rightBack.get(0) / maxPowerMag);
-        rightFront.setPower(wheelVels.rightFront.get(0) / maxPowerMag);
+        /**
+         * Forgets the last velocity; called when a new action starts.
+         */
+        public void reset() {
+            measured = false;
+        }
     }
 
     public final class FollowTrajectoryAction implements Action {
+        // null when following a table loaded from a TrajectoryCache
         public final TimeTrajectory timeTrajectory;
+        // baked lookup table for the target, null to evaluate timeTrajectory directly
+        public final SampledTrajectory table;
+        public final double duration;
         private double beginTs = -1;
+        // false when the next action in a chain takes the motors over in the same loop
+        private boolean stopAtEnd = true;
+        private CompletionPolicy completion = completionPolicy;
 
         private final double[] xPoints, yPoints;
 
         public FollowTrajectoryAction(TimeTrajectory t) {
+            this(t, null);
+        }
+
+        public FollowTrajectoryAction(SampledTrajectory table) {
+            this(null, table);
+        }
+
+        public FollowTrajectoryAction(TimeTrajectory t, SampledTrajectory table) {
+            if (t == null && table == null) {
+                throw new IllegalArgumentException("need a trajectory or a table");
+            }
             timeTrajectory = t;
+            this.table = table;
+            duration = table != null ? table.duration : t.duration;
+
+            if (table != null) {
+                xPoints = table.xPoints();
+                yPoints = table.yPoints();
+                return;
+            }
 
             List<Double> disps = com.acmerobotics.roadrunner.Math.range(
                     0, t.path.length(),
@@ -306,64 +489,45 @@ public class MecanumDrive {
             if (beginTs < 0) {
                 beginTs = Actions.now();
                 t = 0;
+                commandPipeline.reset();
             } else {
                 t = Actions.now() - beginTs;
             }
 
-            if (t >= timeTrajectory.duration) {
-                leftFront.setPower(0);
-                leftBack.setPower(0);
-                rightBack.setPower(0);
-                rightFront.setPower(0);
+            DriveController controller = commandPipeline.controller;
+            if (table != null) {
+                table.sample(t, controller);
+            } else {
+                controller.setTarget(timeTrajectory.get(Math.min(t, duration)));
+            }
+
+            // a hand-off segment never settles, the next one picks up the error
+            if (t >= duration && (!stopAtEnd || commandPipeline.isDone(completion, t - duration))) {
+                if (stopAtEnd) {
+                    commandPipeline.stop();
+                }
 
                 return false;
             }
 
-            Pose2dDual<Time> txWorldTarget = timeTrajectory.get(t);
-            targetPoseWriter.write(new PoseMessage(txWorldTarget.value()));
-
-            PoseVelocity2d robotVelRobot = updatePoseEstimate();
-
-            PoseVelocity2dDual<Time> command = new HolonomicController(
-                    PARAMS.axialGain, PARAMS.lateralGain, PARAMS.headingGain,
-                    PARAMS.axialVelGain, PARAMS.lateralVelGain, PARAMS.headingVelGain
-            )
-                    .compute(txWorldTarget, pose, robotVelRobot);
-            driveCommandWriter.write(new DriveCommandMessage(command));
-
-            MecanumKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
-            double voltage = voltageSensor.getVoltage();
-
-            final MotorFeedforward feedforward = new MotorFeedforward(PARAMS.kS,
-                    PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
-            double leftFrontPower = feedforward.compute(wheelVels.leftFront) / voltage;
-            double leftBackPower = feedforward.compute(wheelVels.leftBack) / voltage;
-            double rightBackPower = feedforward.compute(wheelVels.rightBack) / voltage;
-            double rightFrontPower = feedforward.compute(wheelVels.rightFront) / voltage;
-            mecanumCommandWriter.write(new MecanumCommandMessage(
-                    voltage, leftFrontPower, leftBackPower, rightBackPower, rightFrontPower
-            ));
-
-            leftFront.setPower(leftFrontPower);
-            leftBack.setPower(leftBackPower);
-            rightBack.setPower(rightBackPower);
-            rightFront.setPower(rightFrontPower);
+            commandPipeline.update();
 
             p.put("x", pose.position.x);
             p.put("y", pose.position.y);
             p.put("heading (deg)", Math.toDegrees(pose.heading.toDouble()));
 
-            Pose2d error = txWorldTarget.value().minusExp(pose);
-            p.put("xError", error.position.x);
-            p.put("yError", error.position.y);
-            p.put("headingError (deg)", Math.toDegrees(error.heading.toDouble()));
+            p.put("xError", controller.errorX);
+            p.put("yError", controller.errorY);
+            p.put("headingError (deg)", Math.toDegrees(controller.errorHeading));
+            addTelemetry(p);
 
             // only draw when active; only one drive action should be active at a time
+            long t0 = profiler.start();
             Canvas c = p.fieldOverlay();
             drawPoseHistory(c);
 
             c.setStroke("#4CAF50");
-            Drawing.drawRobot(c, txWorldTarget.value());
+            Drawing.drawRobot(c, controller.targetX, controller.targetY, controller.targetHeading);
 
             c.setStroke("#3F51B5");
             Drawing.drawRobot(c, pose);
@@ -371,10 +535,28 @@ public class MecanumDrive {
             c.setStroke("#4CAF50FF");
             c.setStrokeWidth(1);
             c.strokePolyline(xPoints, yPoints);
+            profiler.stop(LoopProfiler.Phase.DRAWING, t0);
+
+            profiler.addTelemetry(p);
 
             return true;
         }
 
+        /**
+         * Leaves the motors running when done instead of zeroing them, for a segment that's immediately
+         * followed by another drive action in the same loop (like the next segment of a chain in a
+         * SequentialAction). The last action of the chain still stops the drive.
+         */
+        public FollowTrajectoryAction handOff() {
+            stopAtEnd = false;
+            return this;
+        }
+
+        public FollowTrajectoryAction withCompletion(CompletionPolicy completion) {
+            this.completion = completion;
+            return this;
+        }
+
         @Override
         public void preview(Canvas c) {
             c.setStroke("#4CAF507A");
@@ -387,64 +569,47 @@ public class MecanumDrive {
         private final TimeTurn turn;
 
         private double beginTs = -1;
+        private CompletionPolicy completion = completionPolicy;
 
         public TurnAction(TimeTurn turn) {
             this.turn = turn;
         }
 
+        public TurnAction withCompletion(CompletionPolicy completion) {
+            this.completion = completion;
+            return this;
+        }
+
         @Override
         public boolean run(@NonNull TelemetryPacket p) {
             double t;
             if (beginTs < 0) {
                 beginTs = Actions.now();
                 t = 0;
+                commandPipeline.reset();
             } else {
                 t = Actions.now() - beginTs;
             }
 
-            if (t >= turn.duration) {
-                leftFront.setPower(0);
-                leftBack.setPower(0);
-                rightBack.setPower(0);
-                rightFront.setPower(0);
+            DriveController controller = commandPipeline.controller;
+            controller.setTarget(turn.get(Math.min(t, turn.duration)));
+
+            if (t >= turn.duration && commandPipeline.isDone(completion, t - turn.duration)) {
+                commandPipeline.stop();
 
                 return false;
             }
 
-            Pose2dDual<Time> txWorldTarget = turn.get(t);
-            targetPoseWriter.write(new PoseMessage(txWorldTarget.value()));
-
-            PoseVelocity2d robotVelRobot = updatePoseEstimate();
-
-            PoseVelocity2dDual<Time> command = new HolonomicController(
-                    PARAMS.axialGain, PARAMS.lateralGain, PARAMS.headingGain,
-                    PARAMS.axialVelGain, PARAMS.lateralVelGain, PARAMS.headingVelGain
-            )
-                    .compute(txWorldTarget, pose, robotVelRobot);
-            driveCommandWriter.write(new DriveCommandMessage(command));
-
-            MecanumKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
-            double voltage = voltageSensor.getVoltage();
-            final MotorFeedforward feedforward = new MotorFeedforward(PARAMS.kS,
-                    PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
-            double leftFrontPower = feedforward.compute(wheelVels.leftFront) / voltage;
-            double leftBackPower = feedforward.compute(wheelVels.leftBack) / voltage;
-            double rightBackPower = feedforward.compute(wheelVels.rightBack) / voltage;
-            double rightFrontPower = feedforward.compute(wheelVels.rightFront) / voltage;
-            mecanumCommandWriter.write(new MecanumCommandMessage(
-                    voltage, leftFrontPower, leftBackPower, rightBackPower, rightFrontPower
-            ));
+            commandPipeline.update();
 
-            leftFront.setPower(feedforward.compute(wheelVels.leftFront) / voltage);
-            leftBack.setPower(feedforward.compute(wheelVels.leftBack) / voltage);
-            rightBack.setPower(feedforward.compute(wheelVels.rightBack) / voltage);
-            rightFront.setPower(feedforward.compute(wheelVels.rightFront) / voltage);
+            addTelemetry(p);
+            profiler.addTelemetry(p);
 
             Canvas c = p.fieldOverlay();
             drawPoseHistory(c);
 
             c.setStroke("#4CAF50");
-            Drawing.drawRobot(c, txWorldTarget.value());
+            Drawing.drawRobot(c, controller.targetX, controller.targetY, controller.targetHeading);
 
             c.setStroke("#3F51B5");
             Drawing.drawRobot(c, pose);
@@ -462,41 +627,198 @@ public class MecanumDrive {
         }
     }
 
+    /**
+     * An action that finishes once the robot is within distance inches of pos, so a mechanism can start
+     * before the path that's driving there is done. Run it in parallel with that path; it doesn't update
+     * the pose itself.
+     */
+    public Action releaseNear(Vector2d pos, double distance) {
+        return new Action() {
+            @Override
+            public boolean run(@NonNull TelemetryPacket p) {
+                return pose.position.minus(pos).norm() > distance;
+            }
+
+            @Override
+            public void preview(Canvas c) {
+                c.setStroke("#FF98007A");
+                c.strokeCircle(pos.x, pos.y, distance);
+            }
+        };
+    }
+
+    /**
+     * Runs mechanism once the robot gets within distance inches of where the recipe ends, alongside path.
+     */
+    public Action releaseNear(TrajectoryRecipe recipe, double distance, Action path, Action mechanism) {
+        return new ParallelAction(path,
+                new SequentialAction(releaseNear(recipe.endPose().position, distance), mechanism));
+    }
+
     public PoseVelocity2d updatePoseEstimate() {
-        Twist2dDual<Time> twist = localizer.update();
-        pose = pose.plus(twist.value());
+        updatePose();
+        return new PoseVelocity2d(new Vector2d(velX, velY), angVel);
+    }
+
+    /**
+     * {@link #updatePoseEstimate()} without building the velocity, which is left in {@link #velX},
+     * {@link #velY} and {@link #angVel}. This is what the followers call; subclasses that localize
+     * differently override this one.
+     */
+    public void updatePose() {
+        profiler.markLoop();
+        long t0 = profiler.start();
+
+        if (odometry != null && odometry.isRunning()) {
+            // the service thread keeps the hub caches fresh
+            if (pose != integratedPose) {
+                odometry.setPose(pose);
+                integratedPose = pose;
+            }
+            odometry.read(odometrySnapshot);
+            profiler.stop(LoopProfiler.Phase.LOCALIZER, t0);
+            // keep the pose that was just set until the thread has picked it up
+            if (odometrySnapshot.resets == odometry.getRequestedResets()) {
+                setIntegratedPose(odometrySnapshot.x, odometrySnapshot.y, odometrySnapshot.heading);
+            }
+            velX = odometrySnapshot.velX;
+            velY = odometrySnapshot.velY;
+            angVel = odometrySnapshot.angVel;
+
+            // the thread can't log, so its inputs are logged from here at loop rate (for replays)
+            if (odometrySnapshot.samples != lastLoggedSample) {
+                lastLoggedSample = odometrySnapshot.samples;
+                FlightRecorder.write("THREE_DEAD_WHEEL_INPUTS", odometryInputsMessage.set(
+                        odometrySnapshot.timestampNanos,
+                        odometrySnapshot.par0Pos, odometrySnapshot.par0Vel,
+                        odometrySnapshot.par1Pos, odometrySnapshot.par1Vel,
+                        odometrySnapshot.perpPos, odometrySnapshot.perpVel));
+            }
+        } else if (localizer instanceof ThreeDeadWheelLocalizer) {
+            bulkReads.beginCycleIfStale();
 
+            ThreeDeadWheelLocalizer deadWheels = (ThreeDeadWheelLocalizer) localizer;
+            // someone set pose since the last update
+            if (pose != integratedPose) {
+                deadWheels.setPose(pose.position.x, pose.position.y, pose.heading.toDouble());
+            }
+            deadWheels.integrate();
+            profiler.stop(LoopProfiler.Phase.LOCALIZER, t0);
+            setIntegratedPose(deadWheels.x, deadWheels.y, deadWheels.heading);
+            velX = deadWheels.velX;
+            velY = deadWheels.velY;
+            angVel = deadWheels.angVel;
+        } else {
+            bulkReads.beginCycleIfStale();
+
+            Twist2dDual<Time> twist = localizer.update();
+            profiler.stop(LoopProfiler.Phase.LOCALIZER, t0);
+            pose = pose.plus(twist.value());
+            PoseVelocity2d vel = twist.velocity().value();
+            velX = vel.linearVel.x;
+            velY = vel.linearVel.y;
+            angVel = vel.angVel;
+        }
+
+        finishPoseUpdate(t0);
+    }
+
+    /**
+     * What every {@link #updatePose()} does once pose is current: the history, the hand-off, the
+     * estimated pose log and the profiler phase begun at t0 (with {@link LoopProfiler#markLoop()} before
+     * it).
+     */
+    protected void finishPoseUpdate(long t0) {
         poseHistory.add(pose);
-        while (poseHistory.size() > 100) {
-            poseHistory.removeFirst();
+
+        if (matchState != null) {
+            matchStateRecord.x = pose.position.x;
+            matchStateRecord.y = pose.position.y;
+            matchStateRecord.heading = pose.heading.toDouble();
+            // bulk cached, the cycle was begun by updatePose() (or by the odometry thread)
+            matchStateRecord.liftTicks = lift.getCurrentPosition();
+            matchStateRecord.gearTicks = gear.getCurrentPosition();
+            matchState.write(matchStateRecord);
         }
 
-        estimatedPoseWriter.write(new PoseMessage(pose));
+        estimatedPoseWriter.write(estimatedPoseMessage.set(
+                pose.position.x, pose.position.y, pose.heading.toDouble()));
 
-        return twist.velocity().value();
+        profiler.stop(LoopProfiler.Phase.UPDATE_POSE_ESTIMATE, t0);
     }
 
-    private void drawPoseHistory(Canvas c) {
-        double[] xPoints = new double[poseHistory.size()];
-        double[] yPoints = new double[poseHistory.size()];
+    /**
+     * The samplers', hubs' and odometry thread's telemetry; the followers add it every loop.
+     */
+    public void addTelemetry(TelemetryPacket p) {
+        voltageSampler.addTelemetry(p);
+        if (imuSampler.isRunning()) {
+            imuSampler.addTelemetry(p);
+        }
+        if (odometry != null && odometry.isRunning()) {
+            odometry.addTelemetry(p);
+        }
+        bulkReads.addTelemetry(p);
+        desaturation.addTelemetry(p);
+        CachingHardware.addTelemetry(p);
+    }
+
+    // Pose2d can't be updated in place, but it only needs replacing when the robot moved or pose was set
+    private void setIntegratedPose(double x, double y, double heading) {
+        if (pose != integratedPose || x != integratedX || y != integratedY || heading != integratedHeading) {
+            pose = new Pose2d(x, y, heading);
+            integratedX = x;
+            integratedY = y;
+            integratedHeading = heading;
+        }
+        integratedPose = pose;
+    }
 
-        int i = 0;
-        for (Pose2d t : poseHistory) {
-            xPoints[i] = t.position.x;
-            yPoints[i] = t.position.y;
+    /**
+     * Moves dead wheel integration onto an {@link OdometryService} thread; {@link #updatePoseEstimate()}
+     * then just reads its latest snapshot. Stops by itself with the op mode.
+     */
+    public OdometryService startOdometryService() {
+        if (!(localizer instanceof ThreeDeadWheelLocalizer)) {
+            throw new IllegalStateException("the odometry service needs a ThreeDeadWheelLocalizer");
+        }
+        if (odometry == null) {
+            odometry = new OdometryService((ThreeDeadWheelLocalizer) localizer, bulkReads);
+        }
+        odometry.start(pose);
+        integratedPose = pose;
+        return odometry;
+    }
 
-            i++;
+    public void stopOdometryService() {
+        if (odometry != null) {
+            odometry.stop();
         }
+    }
 
+    private void drawPoseHistory(Canvas c) {
         c.setStrokeWidth(1);
         c.setStroke("#3F51B5");
-        c.strokePolyline(xPoints, yPoints);
+        poseHistory.draw(c);
     }
 
     public TrajectoryActionBuilder actionBuilder(Pose2d beginPose) {
+        return actionBuilder(beginPose, FollowTrajectoryAction::new);
+    }
+
+    /**
+     * Like {@link #actionBuilder(Pose2d)}, but every trajectory is baked into a {@link SampledTrajectory}
+     * when the action is built so the follower's target lookup is constant time.
+     */
+    public TrajectoryActionBuilder actionBuilder(Pose2d beginPose, SampledTrajectory.Interpolation interpolation) {
+        return actionBuilder(beginPose, t -> new FollowTrajectoryAction(t,
+                new SampledTrajectory(t, PARAMS.trajectorySampleStep, interpolation)));
+    }
+
+    public TrajectoryActionBuilder actionBuilder(Pose2d beginPose, TrajectoryActionFactory trajectoryActionFactory) {
         return new TrajectoryActionBuilder(
                 TurnAction::new,
-                FollowTrajectoryAction::new,
+                trajectoryActionFactory,
                 new TrajectoryBuilderParams(
                         1e-6,
                         new ProfileParams(
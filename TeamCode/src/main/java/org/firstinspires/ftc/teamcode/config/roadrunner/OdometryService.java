@@ -0,0 +1,197 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.acmerobotics.roadrunner.Pose2d;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Integrates the dead wheels on its own thread at a fixed rate, so the pose keeps up while the op mode
+ * thread is stuck in something blocking (camera alignment, HuskyLens reads, sleeps) instead of catching
+ * up with one huge twist afterwards.
+ * <p>
+ * The thread owns the {@link ThreeDeadWheelLocalizer} while running, and begins a
+ * {@link BulkReadCoordinator} cycle for every sample; it's made the coordinator's cycle owner, so the op
+ * mode thread stops clearing the caches under it. The latest pose and velocity are published through
+ * a seqlock: the writer bumps the sequence to odd, writes, and bumps it back to even; a reader retries
+ * until it sees the same even sequence before and after copying. Everything lives in one
+ * {@link AtomicLongArray}, so every access is volatile and nothing is allocated per sample.
+ */
+@Config
+public final class OdometryService extends PollingService {
+    public static class Params {
+        public double rateHz = 200;
+    }
+
+    public static Params PARAMS = new Params();
+
+    /**
+     * One consistent sample. Velocities are in the robot frame.
+     */
+    public static final class Snapshot {
+        public double x, y, heading;
+        public double velX, velY, angVel;
+        public long timestampNanos;
+        // how many setPose() calls the thread had applied when it took this sample
+        public long resets;
+        public long samples;
+        // raw encoder readings, for logging
+        public int par0Pos, par1Pos, perpPos;
+        public int par0Vel, par1Vel, perpVel;
+    }
+
+    private static final int SEQUENCE = 0, X = 1, Y = 2, HEADING = 3, VEL_X = 4, VEL_Y = 5, ANG_VEL = 6,
+            TIMESTAMP = 7, RESETS = 8, SAMPLES = 9, PAR0_POS = 10, PAR1_POS = 11, PERP_POS = 12,
+            PAR0_VEL = 13, PAR1_VEL = 14, PERP_VEL = 15, SLOTS = 16;
+
+    private final ThreeDeadWheelLocalizer localizer;
+    private final BulkReadCoordinator bulkReads;
+    private final AtomicLongArray published = new AtomicLongArray(SLOTS);
+
+    // setPose() requests, applied by the thread before its next sample
+    private volatile Pose2d pendingPose;
+    private volatile long requestedResets;
+    // set by onStart(), otherwise only touched by the thread
+    private long appliedResets;
+
+    private volatile Pose2d startPose;
+    // whether the localizer logged its own inputs before the thread took it over
+    private boolean localizerLogged;
+
+    public OdometryService(ThreeDeadWheelLocalizer localizer, BulkReadCoordinator bulkReads) {
+        super("OdometryService");
+        this.localizer = localizer;
+        this.bulkReads = bulkReads;
+    }
+
+    /**
+     * Starts integrating from pose.
+     */
+    public void start(Pose2d pose) {
+        startPose = pose;
+        start();
+    }
+
+    @Override
+    protected void onStart() {
+        Pose2d pose = startPose;
+        if (pose != null) {
+            localizer.setPose(pose.position.x, pose.position.y, pose.heading.toDouble());
+        }
+        // setPose() calls from before this start are already in the pose
+        appliedResets = requestedResets;
+        localizerLogged = localizer.logInputs;
+        localizer.logInputs = false;
+        publish(appliedResets);
+    }
+
+    @Override
+    protected void onThreadCreated(Thread thread) {
+        // the control loop is waiting on this
+        thread.setPriority(Thread.MAX_PRIORITY - 1);
+        bulkReads.setCycleOwner(thread);
+    }
+
+    @Override
+    protected void onExit() {
+        bulkReads.releaseCycleOwner(Thread.currentThread());
+        localizer.logInputs = localizerLogged;
+    }
+
+    @Override
+    protected double getRateHz() {
+        return PARAMS.rateHz;
+    }
+
+    @Override
+    protected boolean sample(AtomicBoolean stop) {
+        // count first: the pose is written before the count, so it's at least this new
+        long resetCount = requestedResets;
+        Pose2d reset = pendingPose;
+        if (resetCount != appliedResets && reset != null) {
+            localizer.setPose(reset.position.x, reset.position.y, reset.heading.toDouble());
+            appliedResets = resetCount;
+        }
+
+        bulkReads.beginCycle();
+        if (stop.get()) {
+            // the op mode thread may have the localizer back already
+            return false;
+        }
+        localizer.integrate();
+        publish(appliedResets);
+        return true;
+    }
+
+    private void publish(long resets) {
+        long sequence = published.get(SEQUENCE) + 1;
+        published.set(SEQUENCE, sequence);
+        published.set(X, Double.doubleToRawLongBits(localizer.x));
+        published.set(Y, Double.doubleToRawLongBits(localizer.y));
+        published.set(HEADING, Double.doubleToRawLongBits(localizer.heading));
+        published.set(VEL_X, Double.doubleToRawLongBits(localizer.velX));
+        published.set(VEL_Y, Double.doubleToRawLongBits(localizer.velY));
+        published.set(ANG_VEL, Double.doubleToRawLongBits(localizer.angVel));
+        published.set(TIMESTAMP, System.nanoTime());
+        published.set(RESETS, resets);
+        published.set(SAMPLES, published.get(SAMPLES) + 1);
+        published.set(PAR0_POS, localizer.getPar0Pos());
+        published.set(PAR1_POS, localizer.getPar1Pos());
+        published.set(PERP_POS, localizer.getPerpPos());
+        published.set(PAR0_VEL, localizer.par0Vel);
+        published.set(PAR1_VEL, localizer.par1Vel);
+        published.set(PERP_VEL, localizer.perpVel);
+        published.set(SEQUENCE, sequence + 1);
+    }
+
+    /**
+     * Copies the latest sample into out without blocking the odometry thread.
+     */
+    public Snapshot read(Snapshot out) {
+        while (true) {
+            long before = published.get(SEQUENCE);
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            out.x = Double.longBitsToDouble(published.get(X));
+            out.y = Double.longBitsToDouble(published.get(Y));
+            out.heading = Double.longBitsToDouble(published.get(HEADING));
+            out.velX = Double.longBitsToDouble(published.get(VEL_X));
+            out.velY = Double.longBitsToDouble(published.get(VEL_Y));
+            out.angVel = Double.longBitsToDouble(published.get(ANG_VEL));
+            out.timestampNanos = published.get(TIMESTAMP);
+            out.resets = published.get(RESETS);
+            out.samples = published.get(SAMPLES);
+            out.par0Pos = (int) published.get(PAR0_POS);
+            out.par1Pos = (int) published.get(PAR1_POS);
+            out.perpPos = (int) published.get(PERP_POS);
+            out.par0Vel = (int) published.get(PAR0_VEL);
+            out.par1Vel = (int) published.get(PAR1_VEL);
+            out.perpVel = (int) published.get(PERP_VEL);
+            if (published.get(SEQUENCE) == before) {
+                return out;
+            }
+        }
+    }
+
+    /**
+     * Moves the integrated pose. Takes effect at the thread's next sample; snapshots taken before that
+     * have {@link Snapshot#resets} below {@link #getRequestedResets()}.
+     */
+    public synchronized void setPose(Pose2d pose) {
+        pendingPose = pose;
+        requestedResets++;
+    }
+
+    public long getRequestedResets() {
+        return requestedResets;
+    }
+
+    public void addTelemetry(TelemetryPacket p) {
+        p.put("odometry period (ms)", getSamplePeriodMs());
+        p.put("odometry samples", published.get(SAMPLES));
+    }
+}
@@ -0,0 +1,199 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.eventloop.opmode.OpModeManagerImpl;
+import com.qualcomm.robotcore.eventloop.opmode.OpModeManagerNotifier;
+
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A daemon thread that calls {@link #sample(AtomicBoolean)} at {@link #getRateHz()}, for the samplers that
+ * keep hardware reads off the op mode thread.
+ * <p>
+ * Every {@link #start()} gives its thread its own stop flag, so a thread that was stopped but is still
+ * inside a read can't be revived by the next start and end up sampling alongside the new one. start()
+ * also waits for that thread to finish before {@link #onStart()} resets the sampling state. The thread
+ * stops by itself when the op mode stops, or when a read throws (the hardware is closed with the op mode).
+ */
+public abstract class PollingService implements OpModeManagerNotifier.Notifications {
+    // how long start() and stop() wait for a stopped thread (in milliseconds)
+    private static final long JOIN_MILLIS = 100;
+
+    private final String name;
+
+    private volatile boolean running;
+    // the newest thread, kept until it exits so the next start() can wait for it
+    private Thread thread;
+    private AtomicBoolean stopToken;
+    private OpModeManagerImpl opModeManager;
+
+    private volatile double samplePeriodMs;
+
+    protected PollingService(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sampling rate (in Hz), read before every sample so it can be changed from the dashboard.
+     */
+    protected abstract double getRateHz();
+
+    /**
+     * Takes one sample on the thread. stop is the thread's own flag; check it after a slow read, before
+     * publishing anything, since a newer thread may have been started meanwhile.
+     * @return false to end the thread
+     */
+    protected abstract boolean sample(AtomicBoolean stop);
+
+    /**
+     * Called by {@link #start()} on the caller's thread, once any previous thread has exited and before the
+     * new one exists. Resets the sampling state, and can take a first sample so reads are valid right away.
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * Called with the new thread just before it starts.
+     */
+    protected void onThreadCreated(Thread thread) {
+    }
+
+    /**
+     * Called on the thread as it exits, however it ends.
+     */
+    protected void onExit() {
+    }
+
+    public void start() {
+        Thread previous;
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            previous = thread;
+        }
+        // outside the lock, the exiting thread takes it
+        join(previous);
+
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            onStart();
+
+            AtomicBoolean token = new AtomicBoolean();
+            stopToken = token;
+            running = true;
+            Thread t = new Thread(() -> run(token), name);
+            t.setDaemon(true);
+            onThreadCreated(t);
+            thread = t;
+            t.start();
+
+            if (opModeManager == null) {
+                opModeManager = OpModeManagerImpl.getOpModeManagerOfActivity(AppUtil.getInstance().getActivity());
+                if (opModeManager != null) {
+                    opModeManager.registerListener(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the thread and waits (briefly) for it to exit.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (opModeManager != null) {
+                opModeManager.unregisterListener(this);
+                opModeManager = null;
+            }
+            t = thread;
+        }
+        halt();
+        join(t);
+    }
+
+    private synchronized void halt() {
+        running = false;
+        if (stopToken != null) {
+            stopToken.set(true);
+            stopToken = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private static void join(Thread t) {
+        if (t == null || t == Thread.currentThread()) {
+            return;
+        }
+        try {
+            t.join(JOIN_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Time between the starts of the last two samples (in milliseconds).
+     */
+    public double getSamplePeriodMs() {
+        return samplePeriodMs;
+    }
+
+    private void run(AtomicBoolean stop) {
+        try {
+            long last = System.nanoTime();
+            while (!stop.get() && !Thread.currentThread().isInterrupted()) {
+                long start = System.nanoTime();
+                if (!sample(stop)) {
+                    break;
+                }
+                samplePeriodMs = (start - last) * 1e-6;
+                last = start;
+
+                long remaining = start + (long) (1e9 / Math.max(1, getRateHz())) - System.nanoTime();
+                if (remaining > 0) {
+                    LockSupport.parkNanos(remaining);
+                }
+            }
+        } catch (RuntimeException e) {
+            // the hardware was closed with the op mode
+        } finally {
+            onExit();
+            synchronized (this) {
+                if (stopToken == stop) {
+                    running = false;
+                    stopToken = null;
+                }
+                if (thread == Thread.currentThread()) {
+                    thread = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onOpModePreInit(OpMode opMode) {
+    }
+
+    @Override
+    public void onOpModePreStart(OpMode opMode) {
+    }
+
+    @Override
+    public void onOpModePostStop(OpMode opMode) {
+        // still inside the manager's listener loop, so don't unregister or wait
+        halt();
+    }
+}
@@ -0,0 +1,154 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.dashboard.canvas.Canvas;
+import com.acmerobotics.roadrunner.Pose2d;
+
+/**
+ * Fixed-capacity ring buffer of timestamped poses backed by primitive arrays.
+ * <p>
+ * Adding a pose never allocates. The history can be drawn as a polyline and queried for the
+ * (interpolated) pose at a past {@link System#nanoTime()} timestamp.
+ */
+public final class PoseHistory {
+    public final int capacity;
+
+    private final long[] timestamps;
+    private final double[] xs, ys, headings;
+
+    // index the next pose is written to
+    private int head;
+    private int size;
+
+    public PoseHistory(int capacity) {
+        this.capacity = capacity;
+        timestamps = new long[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        headings = new double[capacity];
+    }
+
+    public void add(Pose2d pose) {
+        add(System.nanoTime(), pose.position.x, pose.position.y, pose.heading.toDouble());
+    }
+
+    public void add(long timestampNanos, double x, double y, double heading) {
+        timestamps[head] = timestampNanos;
+        xs[head] = x;
+        ys[head] = y;
+        headings[head] = heading;
+
+        head = (head + 1) % capacity;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    // storage index of the i-th oldest pose
+    private int index(int i) {
+        return (head - size + i + capacity) % capacity;
+    }
+
+    public long timestamp(int i) {
+        return timestamps[index(i)];
+    }
+
+    public double x(int i) {
+        return xs[index(i)];
+    }
+
+    public double y(int i) {
+        return ys[index(i)];
+    }
+
+    public double heading(int i) {
+        return headings[index(i)];
+    }
+
+    public long oldestTimestamp() {
+        return timestamps[index(0)];
+    }
+
+    public long newestTimestamp() {
+        return timestamps[index(size - 1)];
+    }
+
+    /**
+     * Interpolates the pose at the given timestamp into out as {x, y, heading}.
+     * @return false if the history is empty or the timestamp is outside of it
+     */
+    public boolean poseAt(long timestampNanos, double[] out) {
+        if (size == 0 || timestampNanos < oldestTimestamp() || timestampNanos > newestTimestamp()) {
+            return false;
+        }
+
+        // binary search for the last pose at or before the timestamp
+        int lo = 0, hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (timestamps[index(mid)] <= timestampNanos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        int a = index(lo);
+        if (lo == size - 1) {
+            out[0] = xs[a];
+            out[1] = ys[a];
+            out[2] = headings[a];
+            return true;
+        }
+
+        int b = index(lo + 1);
+        long span = timestamps[b] - timestamps[a];
+        double s = span > 0 ? (double) (timestampNanos - timestamps[a]) / span : 0;
+        out[0] = xs[a] + (xs[b] - xs[a]) * s;
+        out[1] = ys[a] + (ys[b] - ys[a]) * s;
+        out[2] = headings[a] + Math.IEEEremainder(headings[b] - headings[a], 2 * Math.PI) * s;
+        return true;
+    }
+
+    /**
+     * Convenience version of {@link #poseAt(long, double[])}; returns null outside the history.
+     */
+    public Pose2d poseAt(long timestampNanos) {
+        double[] out = new double[3];
+        if (!poseAt(timestampNanos, out)) {
+            return null;
+        }
+        return new Pose2d(out[0], out[1], out[2]);
+    }
+
+    /**
+     * Strokes the history oldest to newest.
+     * <p>
+     * The canvas keeps the arrays, not a copy, and the dashboard serializes queued packets on its own
+     * thread up to a transmission interval later, so every call hands over arrays of its own. Reusing
+     * buffers here would let a later loop overwrite a path that's still being sent.
+     */
+    public void draw(Canvas c) {
+        if (size == 0) {
+            return;
+        }
+
+        double[] viewX = new double[size];
+        double[] viewY = new double[size];
+        for (int i = 0; i < size; i++) {
+            int j = index(i);
+            viewX[i] = xs[j];
+            viewY[i] = ys[j];
+        }
+
+        c.strokePolyline(viewX, viewY);
+    }
+}
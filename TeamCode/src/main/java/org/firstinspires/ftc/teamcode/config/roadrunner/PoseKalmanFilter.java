@@ -0,0 +1,169 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.roadrunner.Pose2d;
+
+/**
+ * Extended Kalman filter over the full pose (x, y, heading), for fusing odometry with AprilTags.
+ * <p>
+ * {@link #predict} moves the state by a robot frame twist from the localizer, and grows the covariance
+ * with noise proportional to how far the robot moved (wheels slip more the faster and further they go).
+ * {@link #updatePosition} and {@link #updateHeading} pull it toward an absolute measurement weighted by
+ * that measurement's own covariance. Unlike {@link KalmanFilter.Vector2dKalmanFilter} the states are
+ * coupled, so a heading error shows up as the right sideways position error and vice versa.
+ * <p>
+ * The covariance lives in six doubles (it's symmetric), so nothing is allocated per update.
+ */
+@Config
+public final class PoseKalmanFilter {
+    public static class Params {
+        // process noise: variance added per update, plus per inch / radian moved
+        public double positionNoise = 1e-4; // in^2
+        public double axialNoisePerInch = 2e-3; // in^2 per in
+        public double lateralNoisePerInch = 5e-3; // in^2 per in, mecanum rollers slip more sideways
+        public double headingNoise = 1e-6; // rad^2
+        public double headingNoisePerRad = 1e-3; // rad^2 per rad
+        public double headingNoisePerInch = 1e-5; // rad^2 per in
+
+        // starting uncertainty
+        public double initialPositionVariance = 1; // in^2
+        public double initialHeadingVariance = 1e-3; // rad^2
+    }
+
+    public static Params PARAMS = new Params();
+
+    public double x, y, heading;
+    // covariance, upper triangle
+    public double pxx, pxy, pxh, pyy, pyh, phh;
+
+    public PoseKalmanFilter(Pose2d pose) {
+        reset(pose);
+    }
+
+    /**
+     * Jumps to the pose with the initial uncertainty.
+     */
+    public void reset(Pose2d pose) {
+        x = pose.position.x;
+        y = pose.position.y;
+        heading = pose.heading.toDouble();
+        pxx = pyy = PARAMS.initialPositionVariance;
+        phh = PARAMS.initialHeadingVariance;
+        pxy = pxh = pyh = 0;
+    }
+
+    public Pose2d getPose() {
+        return new Pose2d(x, y, heading);
+    }
+
+    /**
+     * Moves the state by a robot frame displacement.
+     */
+    public void predict(double dx, double dy, double dHeading) {
+        Params p = PARAMS;
+
+        // integrate along the mean heading over the step
+        double mid = heading + dHeading / 2;
+        double c = Math.cos(mid), s = Math.sin(mid);
+        x += c * dx - s * dy;
+        y += s * dx + c * dy;
+        heading = Math.IEEEremainder(heading + dHeading, 2 * Math.PI);
+
+        // F = [[1, 0, a], [0, 1, b], [0, 0, 1]]; P = F P F^T
+        double a = -(s * dx + c * dy);
+        double b = c * dx - s * dy;
+        double oldPxh = pxh, oldPyh = pyh;
+        pxx += 2 * a * oldPxh + a * a * phh;
+        pxy += a * oldPyh + b * oldPxh + a * b * phh;
+        pyy += 2 * b * oldPyh + b * b * phh;
+        pxh = oldPxh + a * phh;
+        pyh = oldPyh + b * phh;
+
+        // + Q, built in the robot frame and rotated into the world
+        double distance = Math.hypot(dx, dy);
+        double qAxial = p.positionNoise + p.axialNoisePerInch * Math.abs(dx);
+        double qLateral = p.positionNoise + p.lateralNoisePerInch * Math.abs(dy);
+        pxx += c * c * qAxial + s * s * qLateral;
+        pxy += c * s * (qAxial - qLateral);
+        pyy += s * s * qAxial + c * c * qLateral;
+        phh += p.headingNoise + p.headingNoisePerRad * Math.abs(dHeading) + p.headingNoisePerInch * distance;
+    }
+
+    /**
+     * Squared Mahalanobis distance of a field position measurement from the state, without fusing it, for
+     * gating. Compare against a chi-square quantile with 2 degrees of freedom.
+     */
+    public double positionDistance(double zx, double zy, double rxx, double rxy, double ryy) {
+        double vx = zx - x, vy = zy - y;
+        double sxx = pxx + rxx, sxy = pxy + rxy, syy = pyy + ryy;
+        double det = sxx * syy - sxy * sxy;
+        if (!(det > 0)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (vx * (syy * vx - sxy * vy) + vy * (-sxy * vx + sxx * vy)) / det;
+    }
+
+    /**
+     * Fuses an absolute field position with covariance [[rxx, rxy], [rxy, ryy]].
+     * @return the squared Mahalanobis distance of the measurement before the update
+     */
+    public double updatePosition(double zx, double zy, double rxx, double rxy, double ryy) {
+        double vx = zx - x, vy = zy - y;
+
+        double sxx = pxx + rxx, sxy = pxy + rxy, syy = pyy + ryy;
+        double det = sxx * syy - sxy * sxy;
+        if (!(det > 0)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double ixx = syy / det, ixy = -sxy / det, iyy = sxx / det;
+        double nis = vx * (ixx * vx + ixy * vy) + vy * (ixy * vx + iyy * vy);
+
+        // K = P H^T S^-1, rows for x, y, heading
+        double kxx = pxx * ixx + pxy * ixy, kxy = pxx * ixy + pxy * iyy;
+        double kyx = pxy * ixx + pyy * ixy, kyy = pxy * ixy + pyy * iyy;
+        double khx = pxh * ixx + pyh * ixy, khy = pxh * ixy + pyh * iyy;
+
+        x += kxx * vx + kxy * vy;
+        y += kyx * vx + kyy * vy;
+        heading = Math.IEEEremainder(heading + khx * vx + khy * vy, 2 * Math.PI);
+
+        // P -= K H P, where H P is the x and y rows of P
+        double oldPxx = pxx, oldPxy = pxy, oldPxh = pxh, oldPyy = pyy, oldPyh = pyh;
+        pxx -= kxx * oldPxx + kxy * oldPxy;
+        pxy -= kxx * oldPxy + kxy * oldPyy;
+        pxh -= kxx * oldPxh + kxy * oldPyh;
+        pyy -= kyx * oldPxy + kyy * oldPyy;
+        pyh -= kyx * oldPxh + kyy * oldPyh;
+        phh -= khx * oldPxh + khy * oldPyh;
+
+        return nis;
+    }
+
+    /**
+     * Fuses an absolute heading with variance r.
+     * @return the squared Mahalanobis distance of the measurement before the update
+     */
+    public double updateHeading(double z, double r) {
+        double v = Math.IEEEremainder(z - heading, 2 * Math.PI);
+        double s = phh + r;
+        if (!(s > 0)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double nis = v * v / s;
+
+        double kx = pxh / s, ky = pyh / s, kh = phh / s;
+        x += kx * v;
+        y += ky * v;
+        heading = Math.IEEEremainder(heading + kh * v, 2 * Math.PI);
+
+        double oldPxh = pxh, oldPyh = pyh, oldPhh = phh;
+        pxx -= kx * oldPxh;
+        pxy -= kx * oldPyh;
+        pxh -= kx * oldPhh;
+        pyy -= ky * oldPyh;
+        pyh -= ky * oldPhh;
+        phh -= kh * oldPhh;
+
+        return nis;
+    }
+}
@@ -0,0 +1,199 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.roadrunner.DualNum;
+import com.acmerobotics.roadrunner.Pose2dDual;
+import com.acmerobotics.roadrunner.Time;
+import com.acmerobotics.roadrunner.TimeTrajectory;
+import com.acmerobotics.roadrunner.TimeTurn;
+
+import java.util.Arrays;
+
+/**
+ * A TimeTrajectory (or TimeTurn) baked at build time into a fixed-step table, so the follower can look up
+ * its target in constant time instead of re-walking the profile and path every loop.
+ * <p>
+ * Each sample holds x, y, heading and their first and second time derivatives, stored interleaved in one
+ * primitive array. Heading is unwrapped so it can be interpolated across +-pi.
+ */
+public final class SampledTrajectory {
+    public enum Interpolation {
+        LINEAR,
+        // cubic Hermite on position and velocity using the stored derivatives
+        HERMITE
+    }
+
+    public static final int X = 0, Y = 1, HEADING = 2;
+    public static final int VEL_X = 3, VEL_Y = 4, ANG_VEL = 5;
+    public static final int ACCEL_X = 6, ACCEL_Y = 7, ANG_ACCEL = 8;
+    public static final int STRIDE = 9;
+
+    public final double duration;
+    public final double step;
+    public final int sampleCount;
+    public final Interpolation interpolation;
+
+    // sampleCount * STRIDE values, sample i starts at i * STRIDE
+    final double[] samples;
+
+    // spacing of the preview polyline (inches); it goes out with every packet, so not one point per sample
+    private static final double PREVIEW_SPACING = 1;
+
+    private double[] xPoints, yPoints;
+
+    private interface Source {
+        Pose2dDual<Time> get(double t);
+    }
+
+    public SampledTrajectory(TimeTrajectory t, double maxStep, Interpolation interpolation) {
+        this(t.duration, maxStep, interpolation, t::get);
+    }
+
+    public SampledTrajectory(TimeTurn t, double maxStep, Interpolation interpolation) {
+        this(t.duration, maxStep, interpolation, t::get);
+    }
+
+    /**
+     * Wraps an already baked table, e.g. one loaded by {@link TrajectoryCache}.
+     */
+    SampledTrajectory(double duration, double step, Interpolation interpolation, double[] samples) {
+        if (samples.length < 2 * STRIDE || samples.length % STRIDE != 0) {
+            throw new IllegalArgumentException("bad sample table length " + samples.length);
+        }
+        this.duration = duration;
+        this.step = step;
+        this.interpolation = interpolation;
+        this.samples = samples;
+        sampleCount = samples.length / STRIDE;
+        buildPolyline();
+    }
+
+    private SampledTrajectory(double duration, double maxStep, Interpolation interpolation, Source source) {
+        this.duration = duration;
+        this.interpolation = interpolation;
+        sampleCount = Math.max(2, (int) Math.ceil(duration / maxStep) + 1);
+        step = duration / (sampleCount - 1);
+        samples = new double[sampleCount * STRIDE];
+
+        double lastHeading = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            Pose2dDual<Time> pose = source.get(i == sampleCount - 1 ? duration : i * step);
+            DualNum<Time> x = pose.position.x, y = pose.position.y;
+            DualNum<Time> real = pose.heading.real, imag = pose.heading.imag;
+
+            double heading = Math.atan2(imag.get(0), real.get(0));
+            if (i > 0) {
+                // unwrap against the previous sample
+                heading = lastHeading + Math.IEEEremainder(heading - lastHeading, 2 * Math.PI);
+            }
+            lastHeading = heading;
+
+            int o = i * STRIDE;
+            samples[o + X] = x.get(0);
+            samples[o + Y] = y.get(0);
+            samples[o + HEADING] = heading;
+            samples[o + VEL_X] = x.get(1);
+            samples[o + VEL_Y] = y.get(1);
+            samples[o + ANG_VEL] = real.get(0) * imag.get(1) - imag.get(0) * real.get(1);
+            samples[o + ACCEL_X] = x.get(2);
+            samples[o + ACCEL_Y] = y.get(2);
+            samples[o + ANG_ACCEL] = real.get(0) * imag.get(2) - imag.get(0) * real.get(2);
+        }
+        buildPolyline();
+    }
+
+    /**
+     * Writes the interpolated target at time t into the controller. Does not allocate.
+     */
+    public void sample(double t, DriveController out) {
+        if (t <= 0) {
+            setTarget(out, 0);
+            return;
+        }
+        if (t >= duration) {
+            setTarget(out, (sampleCount - 1) * STRIDE);
+            return;
+        }
+
+        double pos = t / step;
+        int i = Math.min((int) pos, sampleCount - 2);
+        double s = pos - i;
+        int a = i * STRIDE, b = a + STRIDE;
+
+        if (interpolation == Interpolation.HERMITE) {
+            double s2 = s * s, s3 = s2 * s;
+            double h00 = 2 * s3 - 3 * s2 + 1, h10 = s3 - 2 * s2 + s;
+            double h01 = -2 * s3 + 3 * s2, h11 = s3 - s2;
+            // derivatives of the basis with respect to s
+            double d00 = 6 * s2 - 6 * s, d10 = 3 * s2 - 4 * s + 1;
+            double d01 = -6 * s2 + 6 * s, d11 = 3 * s2 - 2 * s;
+
+            out.setTarget(
+                    hermite(a, b, X, VEL_X, h00, h10, h01, h11),
+                    hermite(a, b, Y, VEL_Y, h00, h10, h01, h11),
+                    hermite(a, b, HEADING, ANG_VEL, h00, h10, h01, h11),
+                    hermite(a, b, VEL_X, ACCEL_X, h00, h10, h01, h11),
+                    hermite(a, b, VEL_Y, ACCEL_Y, h00, h10, h01, h11),
+                    hermite(a, b, ANG_VEL, ANG_ACCEL, h00, h10, h01, h11),
+                    hermite(a, b, VEL_X, ACCEL_X, d00, d10, d01, d11) / step,
+                    hermite(a, b, VEL_Y, ACCEL_Y, d00, d10, d01, d11) / step,
+                    hermite(a, b, ANG_VEL, ANG_ACCEL, d00, d10, d01, d11) / step);
+        } else {
+            out.setTarget(
+                    lerp(a, b, X, s), lerp(a, b, Y, s), lerp(a, b, HEADING, s),
+                    lerp(a, b, VEL_X, s), lerp(a, b, VEL_Y, s), lerp(a, b, ANG_VEL, s),
+                    lerp(a, b, ACCEL_X, s), lerp(a, b, ACCEL_Y, s), lerp(a, b, ANG_ACCEL, s));
+        }
+    }
+
+    private void setTarget(DriveController out, int o) {
+        out.setTarget(
+                samples[o + X], samples[o + Y], samples[o + HEADING],
+                samples[o + VEL_X], samples[o + VEL_Y], samples[o + ANG_VEL],
+                samples[o + ACCEL_X], samples[o + ACCEL_Y], samples[o + ANG_ACCEL]);
+    }
+
+    private double lerp(int a, int b, int channel, double s) {
+        double v0 = samples[a + channel];
+        return v0 + (samples[b + channel] - v0) * s;
+    }
+
+    private double hermite(int a, int b, int channel, int derivative,
+                           double h00, double h10, double h01, double h11) {
+        return h00 * samples[a + channel] + h10 * step * samples[a + derivative]
+                + h01 * samples[b + channel] + h11 * step * samples[b + derivative];
+    }
+
+    public double get(int sample, int channel) {
+        return samples[sample * STRIDE + channel];
+    }
+
+    /**
+     * x coordinates of the table for the dashboard preview polyline, about {@link #PREVIEW_SPACING} apart.
+     * Built with the table and shared.
+     */
+    public double[] xPoints() {
+        return xPoints;
+    }
+
+    public double[] yPoints() {
+        return yPoints;
+    }
+
+    private void buildPolyline() {
+        double[] xs = new double[sampleCount];
+        double[] ys = new double[sampleCount];
+        int n = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            double x = samples[i * STRIDE + X], y = samples[i * STRIDE + Y];
+            // always keep the first and last samples
+            if (n == 0 || i == sampleCount - 1
+                    || Math.hypot(x - xs[n - 1], y - ys[n - 1]) >= PREVIEW_SPACING) {
+                xs[n] = x;
+                ys[n] = y;
+                n++;
+            }
+        }
+        xPoints = Arrays.copyOf(xs, n);
+        yPoints = Arrays.copyOf(ys, n);
+    }
+}
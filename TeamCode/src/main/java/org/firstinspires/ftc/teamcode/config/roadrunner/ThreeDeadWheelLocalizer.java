@@ -15,6 +15,7 @@ import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import com.qualcomm.robotcore.hardware.HardwareMap;
 
 import org.firstinspires.ftc.teamcode.config.roadrunner.Localizer;
+import org.firstinspires.ftc.teamcode.config.roadrunner.messages.ThreeDeadWheelInputsMessage;
 
 @Config
 public final class ThreeDeadWheelLocalizer implements Localizer {
@@ -31,56 +32,159 @@ public final class ThreeDeadWheelLocalizer implements Localizer {
     public final double inPerTick;
 
     private int lastPar0Pos, lastPar1Pos, lastPerpPos;
+    // raw readings from the last update
+    public int par0Vel, par1Vel, perpVel;
+
+    // off for replays, and while the odometry thread owns this (FlightRecorder is the op mode's)
+    public boolean logInputs;
+    private final ThreeDeadWheelInputsMessage inputsMessage = new ThreeDeadWheelInputsMessage();
+
+    // world frame pose, only meaningful once seeded with setPose()
+    public double x, y, heading;
+    // robot frame displacement and velocity from the last update
+    public double deltaX, deltaY, deltaHeading;
+    public double velX, velY, angVel;
+
+    // the PARAMS values the coefficients were built from
+    private Params params;
+    private double par0YTicks = Double.NaN, par1YTicks, perpXTicks;
+    private double headingPerTick, par0XWeight, par1XWeight, perpYWeight;
 
     public ThreeDeadWheelLocalizer(HardwareMap hardwareMap, double inPerTick) {
         // TODO: make sure your config has **motors** with these names (or change them)
         //   the encoders should be plugged into the slot matching the named motor
         //   see https://ftc-docs.firstinspires.org/en/latest/hardware_and_software_configuration/configuring/index.html
-        par0 = new OverflowEncoder(new RawEncoder(hardwareMap.get(DcMotorEx.class, "lF"))); //par0
-        par1 = new OverflowEncoder(new RawEncoder(hardwareMap.get(DcMotorEx.class, "rF"))); //par1
-        perp = new OverflowEncoder(new RawEncoder(hardwareMap.get(DcMotorEx.class, "lB"))); //perp
+        this(encoder(hardwareMap, "lF", DcMotorSimple.Direction.FORWARD), //par0
+                encoder(hardwareMap, "rF", DcMotorSimple.Direction.REVERSE), //par1
+                encoder(hardwareMap, "lB", DcMotorSimple.Direction.REVERSE), //perp
+                inPerTick);
+        logInputs = true;
+
+        FlightRecorder.write("THREE_DEAD_WHEEL_PARAMS", PARAMS);
+    }
+
+    /**
+     * Over any encoders, already pointing the right way; nothing is logged. This is what the replay uses.
+     */
+    public ThreeDeadWheelLocalizer(Encoder par0, Encoder par1, Encoder perp, double inPerTick) {
+        this.par0 = par0;
+        this.par1 = par1;
+        this.perp = perp;
 
-        par1.setDirection(DcMotorSimple.Direction.REVERSE);
-        perp.setDirection(DcMotorSimple.Direction.REVERSE);
         lastPar0Pos = par0.getPositionAndVelocity().position;
         lastPar1Pos = par1.getPositionAndVelocity().position;
         lastPerpPos = perp.getPositionAndVelocity().position;
 
         this.inPerTick = inPerTick;
+    }
 
-        FlightRecorder.write("THREE_DEAD_WHEEL_PARAMS", PARAMS);
+    private static Encoder encoder(HardwareMap hardwareMap, String name, DcMotorSimple.Direction direction) {
+        Encoder e = new OverflowEncoder(new RawEncoder(hardwareMap.get(DcMotorEx.class, name)));
+        e.setDirection(direction);
+        return e;
     }
 
-    public Twist2dDual<Time> update() {
+    public int getPar0Pos() {
+        return lastPar0Pos;
+    }
+
+    public int getPar1Pos() {
+        return lastPar1Pos;
+    }
+
+    public int getPerpPos() {
+        return lastPerpPos;
+    }
+
+    /**
+     * Reads the encoders and advances {@link #x}, {@link #y} and {@link #heading} without allocating
+     * anything (beyond what the encoders do). Also leaves the robot frame displacement and velocity in
+     * the public fields.
+     */
+    public void integrate() {
+        refresh();
+
         PositionVelocityPair par0PosVel = par0.getPositionAndVelocity();
         PositionVelocityPair par1PosVel = par1.getPositionAndVelocity();
         PositionVelocityPair perpPosVel = perp.getPositionAndVelocity();
+        if (logInputs) {
+            FlightRecorder.write("THREE_DEAD_WHEEL_INPUTS", inputsMessage.set(par0PosVel, par1PosVel, perpPosVel));
+        }
 
         int par0PosDelta = par0PosVel.position - lastPar0Pos;
         int par1PosDelta = par1PosVel.position - lastPar1Pos;
         int perpPosDelta = perpPosVel.position - lastPerpPos;
 
-        Twist2dDual<Time> twist = new Twist2dDual<>(
-                new Vector2dDual<>(
-                        new DualNum<Time>(new double[] {
-                                (PARAMS.par0YTicks * par1PosDelta - PARAMS.par1YTicks * par0PosDelta) / (PARAMS.par0YTicks - PARAMS.par1YTicks),
-                                (PARAMS.par0YTicks * par1PosVel.velocity - PARAMS.par1YTicks * par0PosVel.velocity) / (PARAMS.par0YTicks - PARAMS.par1YTicks),
-                        }).times(inPerTick),
-                        new DualNum<Time>(new double[] {
-                                (PARAMS.perpXTicks / (PARAMS.par0YTicks - PARAMS.par1YTicks) * (par1PosDelta - par0PosDelta) + perpPosDelta),
-                                (PARAMS.perpXTicks / (PARAMS.par0YTicks - PARAMS.par1YTicks) * (par1PosVel.velocity - par0PosVel.velocity) + perpPosVel.velocity),
-                        }).times(inPerTick)
-                ),
-                new DualNum<>(new double[] {
-                        (par0PosDelta - par1PosDelta) / (PARAMS.par0YTicks - PARAMS.par1YTicks),
-                        (par0PosVel.velocity - par1PosVel.velocity) / (PARAMS.par0YTicks - PARAMS.par1YTicks),
-                })
-        );
+        deltaX = par1XWeight * par1PosDelta - par0XWeight * par0PosDelta;
+        deltaY = perpYWeight * (par1PosDelta - par0PosDelta) + inPerTick * perpPosDelta;
+        deltaHeading = headingPerTick * (par0PosDelta - par1PosDelta);
+
+        velX = par1XWeight * par1PosVel.velocity - par0XWeight * par0PosVel.velocity;
+        velY = perpYWeight * (par1PosVel.velocity - par0PosVel.velocity) + inPerTick * perpPosVel.velocity;
+        angVel = headingPerTick * (par0PosVel.velocity - par1PosVel.velocity);
 
         lastPar0Pos = par0PosVel.position;
         lastPar1Pos = par1PosVel.position;
         lastPerpPos = perpPosVel.position;
+        par0Vel = par0PosVel.velocity;
+        par1Vel = par1PosVel.velocity;
+        perpVel = perpPosVel.velocity;
+
+        // same as pose.plus(twist): move along the arc in the robot frame, then rotate into the world
+        double sinOverAngle, oneMinusCosOverAngle;
+        if (Math.abs(deltaHeading) < 1e-6) {
+            sinOverAngle = 1 - deltaHeading * deltaHeading / 6;
+            oneMinusCosOverAngle = deltaHeading / 2;
+        } else {
+            sinOverAngle = Math.sin(deltaHeading) / deltaHeading;
+            oneMinusCosOverAngle = (1 - Math.cos(deltaHeading)) / deltaHeading;
+        }
+        double arcX = sinOverAngle * deltaX - oneMinusCosOverAngle * deltaY;
+        double arcY = oneMinusCosOverAngle * deltaX + sinOverAngle * deltaY;
+
+        double cos = Math.cos(heading), sin = Math.sin(heading);
+        x += cos * arcX - sin * arcY;
+        y += sin * arcX + cos * arcY;
+        heading = Math.IEEEremainder(heading + deltaHeading, 2 * Math.PI);
+    }
+
+    public void setPose(double x, double y, double heading) {
+        this.x = x;
+        this.y = y;
+        this.heading = heading;
+    }
 
-        return twist;
+    // rebuilds the coefficients if PARAMS was changed from the dashboard
+    private void refresh() {
+        Params p = PARAMS;
+        if (p == params && p.par0YTicks == par0YTicks && p.par1YTicks == par1YTicks
+                && p.perpXTicks == perpXTicks) {
+            return;
+        }
+
+        params = p;
+        par0YTicks = p.par0YTicks;
+        par1YTicks = p.par1YTicks;
+        perpXTicks = p.perpXTicks;
+
+        headingPerTick = 1 / (par0YTicks - par1YTicks);
+        par0XWeight = par1YTicks * headingPerTick * inPerTick;
+        par1XWeight = par0YTicks * headingPerTick * inPerTick;
+        perpYWeight = perpXTicks * headingPerTick * inPerTick;
+    }
+
+    /**
+     * {@link Localizer} version of {@link #integrate()}, for code that wants a twist.
+     */
+    public Twist2dDual<Time> update() {
+        integrate();
+
+        return new Twist2dDual<>(
+                new Vector2dDual<>(
+                        new DualNum<Time>(new double[] {deltaX, velX}),
+                        new DualNum<Time>(new double[] {deltaY, velY})
+                ),
+                new DualNum<>(new double[] {deltaHeading, angVel})
+        );
     }
 }
@@ -0,0 +1,294 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.roadrunner.Action;
+import com.acmerobotics.roadrunner.SequentialAction;
+
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists baked trajectories between inits so an auto only pays for path generation and profiling when
+ * its waypoints or the drive constraints change.
+ * <p>
+ * Each {@link TrajectoryRecipe} is keyed by a hash of its calls plus the values that shape the profile: the
+ * drive's kinematics and constraints as they were when the drive was built (later dashboard edits to
+ * {@link MecanumDrive#PARAMS} don't reach them) and the sample step. On a hit the {@link SampledTrajectory} tables are read straight out of the
+ * memory-mapped cache file; on a miss the recipe is built normally and its tables are kept for
+ * {@link #save()}. Entries that weren't used this run are carried over (an auto's unselected branches may
+ * never be built), oldest last, up to {@link #MAX_ENTRIES}.
+ * <p>
+ * File layout (big endian): magic, version, entry count, then per entry the key, segment count and for
+ * each segment its duration, step, interpolation, sample count and samples.
+ */
+public final class TrajectoryCache {
+    private static final int MAGIC = 0x52525443; // "RRTC"
+    // bump when the file layout or the way tables are built changes
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_HEADER_BYTES = 12;
+    private static final int SEGMENT_HEADER_BYTES = 24;
+
+    private static final int MAX_ENTRIES = 128;
+
+    private final MecanumDrive drive;
+    private final File file;
+    private final SampledTrajectory.Interpolation interpolation;
+
+    private MappedByteBuffer mapped;
+    // key -> offset and length of the entry in mapped, in file order
+    private final Map<Long, int[]> index = new LinkedHashMap<>();
+    // everything handed out this run, in build order
+    private final Map<Long, SampledTrajectory[]> used = new LinkedHashMap<>();
+
+    private int hits, misses;
+    private double buildMs;
+    // something was built since the last save
+    private boolean dirty;
+
+    public TrajectoryCache(MecanumDrive drive, String name) {
+        this(drive, name, SampledTrajectory.Interpolation.HERMITE);
+    }
+
+    public TrajectoryCache(MecanumDrive drive, String name, SampledTrajectory.Interpolation interpolation) {
+        this.drive = drive;
+        this.interpolation = interpolation;
+
+        File dir = new File(AppUtil.FIRST_FOLDER, "trajectories");
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        file = new File(dir, name + ".bin");
+
+        load();
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return;
+            }
+
+            int entries = buf.getInt();
+            for (int i = 0; i < entries; i++) {
+                int offset = buf.position();
+                long key = buf.getLong();
+                int segments = buf.getInt();
+                for (int j = 0; j < segments; j++) {
+                    buf.position(buf.position() + 20);
+                    int sampleCount = buf.getInt();
+                    buf.position(buf.position() + sampleCount * SampledTrajectory.STRIDE * 8);
+                }
+                index.put(key, new int[]{offset, buf.position() - offset});
+            }
+            mapped = buf;
+        } catch (IOException | RuntimeException e) {
+            // unreadable or truncated, rebuild everything
+            index.clear();
+            mapped = null;
+        }
+    }
+
+    private SampledTrajectory[] read(int offset) {
+        ByteBuffer buf = mapped.duplicate();
+        buf.position(offset + 8);
+        SampledTrajectory[] segments = new SampledTrajectory[buf.getInt()];
+        for (int i = 0; i < segments.length; i++) {
+            double duration = buf.getDouble();
+            double step = buf.getDouble();
+            SampledTrajectory.Interpolation interp = SampledTrajectory.Interpolation.values()[buf.getInt()];
+            double[] samples = new double[buf.getInt() * SampledTrajectory.STRIDE];
+            buf.asDoubleBuffer().get(samples);
+            buf.position(buf.position() + samples.length * 8);
+            segments[i] = new SampledTrajectory(duration, step, interp, samples);
+        }
+        return segments;
+    }
+
+    private long key(TrajectoryRecipe recipe, double step) {
+        long h = 0xcbf29ce484222325L;
+        h = TrajectoryRecipe.mix(h, VERSION);
+        h = TrajectoryRecipe.mix(h, interpolation.ordinal());
+        h = TrajectoryRecipe.mix(h, step);
+        for (double value : drive.constraintValues) {
+            h = TrajectoryRecipe.mix(h, value);
+        }
+        return recipe.hash(h);
+    }
+
+    /**
+     * Returns the action for the recipe, from the cache file if possible. Safe to call from several
+     * threads at once; misses are built outside the lock.
+     */
+    public Action build(TrajectoryRecipe recipe) {
+        long start = System.nanoTime();
+        // read once, so the key and the tables agree even if it's edited mid-build
+        double step = MecanumDrive.PARAMS.trajectorySampleStep;
+        long key = key(recipe, step);
+
+        SampledTrajectory[] segments = lookup(key);
+        boolean hit = segments != null;
+
+        Action action;
+        if (hit) {
+            MecanumDrive.FollowTrajectoryAction[] actions = new MecanumDrive.FollowTrajectoryAction[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                actions[i] = drive.new FollowTrajectoryAction(segments[i]);
+            }
+            handOffSegments(actions);
+            action = actions.length == 1 ? actions[0] : new SequentialAction(actions);
+        } else {
+            List<SampledTrajectory> built = new ArrayList<>();
+            List<MecanumDrive.FollowTrajectoryAction> followers = new ArrayList<>();
+            action = recipe.applyTo(drive.actionBuilder(recipe.beginPose, t -> {
+                SampledTrajectory table = new SampledTrajectory(t, step, interpolation);
+                built.add(table);
+                MecanumDrive.FollowTrajectoryAction follower = drive.new FollowTrajectoryAction(t, table);
+                followers.add(follower);
+                return follower;
+            })).build();
+            segments = built.toArray(new SampledTrajectory[0]);
+            handOffSegments(followers.toArray(new MecanumDrive.FollowTrajectoryAction[0]));
+        }
+
+        record(key, segments, hit, (System.nanoTime() - start) * 1e-6);
+        return action;
+    }
+
+    // the segments of one recipe run back to back, only the last one needs to stop the drive
+    private static void handOffSegments(MecanumDrive.FollowTrajectoryAction[] actions) {
+        for (int i = 0; i < actions.length - 1; i++) {
+            actions[i].handOff();
+        }
+    }
+
+    private synchronized SampledTrajectory[] lookup(long key) {
+        SampledTrajectory[] segments = used.get(key);
+        if (segments != null) {
+            return segments;
+        }
+
+        int[] entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return read(entry[0]);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private synchronized void record(long key, SampledTrajectory[] segments, boolean hit, double ms) {
+        used.put(key, segments);
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+            dirty = true;
+        }
+        buildMs += ms;
+    }
+
+    /**
+     * Rewrites the cache file if anything was built since the last save. Failures are ignored since the
+     * cache only saves time.
+     * @return true if the file was written
+     */
+    public synchronized boolean save() {
+        if (!dirty) {
+            return false;
+        }
+
+        int size = HEADER_BYTES;
+        for (SampledTrajectory[] segments : used.values()) {
+            size += ENTRY_HEADER_BYTES;
+            for (SampledTrajectory s : segments) {
+                size += SEGMENT_HEADER_BYTES + s.samples.length * 8;
+            }
+        }
+        List<int[]> carried = new ArrayList<>();
+        for (Map.Entry<Long, int[]> entry : index.entrySet()) {
+            if (used.size() + carried.size() >= MAX_ENTRIES) {
+                break;
+            }
+            if (!used.containsKey(entry.getKey())) {
+                carried.add(entry.getValue());
+                size += entry.getValue()[1];
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(used.size() + carried.size());
+        for (Map.Entry<Long, SampledTrajectory[]> entry : used.entrySet()) {
+            buf.putLong(entry.getKey());
+            buf.putInt(entry.getValue().length);
+            for (SampledTrajectory s : entry.getValue()) {
+                buf.putDouble(s.duration);
+                buf.putDouble(s.step);
+                buf.putInt(s.interpolation.ordinal());
+                buf.putInt(s.sampleCount);
+                buf.asDoubleBuffer().put(s.samples);
+                buf.position(buf.position() + s.samples.length * 8);
+            }
+        }
+        for (int[] entry : carried) {
+            ByteBuffer old = mapped.duplicate();
+            old.position(entry[0]);
+            old.limit(entry[0] + entry[1]);
+            buf.put(old);
+        }
+        buf.flip();
+
+        // write next to the old file and swap, the old one may still be mapped
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            FileChannel channel = out.getChannel();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            return false;
+        }
+        dirty = false;
+        return true;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Total time spent in {@link #build} (in milliseconds).
+     */
+    public synchronized double getBuildTime() {
+        return buildMs;
+    }
+}
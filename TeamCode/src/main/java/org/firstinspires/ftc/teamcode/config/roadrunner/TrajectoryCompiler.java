@@ -0,0 +1,278 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import androidx.annotation.NonNull;
+
+import com.acmerobotics.dashboard.canvas.Canvas;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.acmerobotics.roadrunner.Action;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds {@link TrajectoryRecipe}s concurrently during init instead of one after another on the op mode
+ * thread.
+ * <p>
+ * {@link #submit(String, TrajectoryRecipe)} starts a build right away and returns a {@link Handle}. A handle
+ * is an {@link Action} that waits for its build the first time it runs, so the auto only blocks if it needs
+ * a path before it has finished compiling.
+ * <p>
+ * Paths that belong to one auto branch can instead be submitted lazily with
+ * {@link #submit(String, int, TrajectoryRecipe)}. They only start compiling once their branch is
+ * {@link #select selected} (e.g. from the live camera reading during init); selecting another branch takes
+ * the not yet started builds of the old one back off the queue. A lazy handle that runs before its build
+ * has started is built right there on the calling thread, and selects its branch so the rest of the branch
+ * compiles in the background.
+ * <p>
+ * Builds go through a {@link TrajectoryCache}, which is saved whenever the queue drains after
+ * {@link #finish()}.
+ */
+public final class TrajectoryCompiler {
+    public static final int NO_BRANCH = 0;
+
+    // the Control Hub has four cores
+    private static final int MAX_THREADS = 4;
+
+    public final class Handle implements Action {
+        public final String name;
+        public final int branch;
+
+        private final FutureTask<Action> task;
+        // guarded by the compiler
+        private boolean queued;
+        private volatile double buildMs = -1;
+        private Action action;
+
+        private Handle(String name, int branch, TrajectoryRecipe recipe) {
+            this.name = name;
+            this.branch = branch;
+            task = new FutureTask<>(() -> {
+                long start = System.nanoTime();
+                try {
+                    return cache.build(recipe);
+                } finally {
+                    buildMs = (System.nanoTime() - start) * 1e-6;
+                    onBuildDone();
+                }
+            });
+        }
+
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        /**
+         * Build time (in milliseconds), or -1 if not built yet.
+         */
+        public double getBuildTime() {
+            return buildMs;
+        }
+
+        /**
+         * The compiled action. Builds it on this thread if no worker has started on it yet, otherwise
+         * blocks until the worker is done.
+         */
+        public Action get() throws InterruptedException {
+            if (action == null) {
+                if (!task.isDone()) {
+                    promote(this);
+                    // no-op if a worker already has it
+                    task.run();
+                }
+                try {
+                    action = task.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("failed to build trajectory " + name, e.getCause());
+                }
+            }
+            return action;
+        }
+
+        @Override
+        public boolean run(@NonNull TelemetryPacket p) {
+            try {
+                return get().run(p);
+            } catch (InterruptedException e) {
+                // op mode is stopping
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public void preview(Canvas c) {
+            if (isDone()) {
+                try {
+                    get().preview(c);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private final TrajectoryCache cache;
+    private final ThreadPoolExecutor executor;
+    private final List<Handle> handles = new ArrayList<>();
+
+    // builds queued or running
+    private int inFlight;
+    private boolean finished;
+    private int selected = NO_BRANCH;
+
+    public TrajectoryCompiler(TrajectoryCache cache) {
+        this.cache = cache;
+
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "TrajectoryCompiler");
+            t.setDaemon(true);
+            // init is waiting on us, but the SDK threads still come first
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+        // idle threads go away once everything is built
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts building the recipe in the background.
+     */
+    public Handle submit(String name, TrajectoryRecipe recipe) {
+        return submit(name, NO_BRANCH, recipe);
+    }
+
+    /**
+     * Registers a recipe that only starts building once its branch is selected, or when it first runs.
+     */
+    public synchronized Handle submit(String name, int branch, TrajectoryRecipe recipe) {
+        Handle handle = new Handle(name, branch, recipe);
+        handles.add(handle);
+        if (branch == NO_BRANCH || branch == selected) {
+            enqueue(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Queues every build of the branch and takes the not yet started builds of other branches off the
+     * queue. Cheap to call every init loop.
+     */
+    public synchronized void select(int branch) {
+        if (branch == selected) {
+            return;
+        }
+        selected = branch;
+        for (Handle handle : handles) {
+            if (handle.branch == NO_BRANCH) {
+                continue;
+            }
+            if (handle.branch == branch) {
+                enqueue(handle);
+            } else if (handle.queued && !handle.isDone() && executor.remove(handle.task)) {
+                handle.queued = false;
+                inFlight--;
+            }
+        }
+    }
+
+    public synchronized int getSelected() {
+        return selected;
+    }
+
+    private void enqueue(Handle handle) {
+        if (handle.queued) {
+            return;
+        }
+        handle.queued = true;
+        inFlight++;
+        executor.execute(handle.task);
+    }
+
+    private synchronized void promote(Handle handle) {
+        if (!handle.queued) {
+            handle.queued = true;
+            inFlight++;
+        }
+        if (handle.branch != NO_BRANCH) {
+            select(handle.branch);
+        }
+    }
+
+    /**
+     * Marks the end of submissions; the cache is saved whenever the queue drains from now on. Doesn't
+     * wait for anything.
+     */
+    public synchronized void finish() {
+        finished = true;
+        if (inFlight == 0) {
+            cache.save();
+        }
+    }
+
+    private synchronized void onBuildDone() {
+        inFlight--;
+        if (finished && inFlight == 0) {
+            cache.save();
+        }
+    }
+
+    /**
+     * Blocks until every queued build is done. Lazy builds of unselected branches are not waited for.
+     */
+    public void awaitAll() throws InterruptedException {
+        List<Handle> snapshot = new ArrayList<>();
+        synchronized (this) {
+            for (Handle handle : handles) {
+                if (handle.queued) {
+                    snapshot.add(handle);
+                }
+            }
+        }
+        for (Handle handle : snapshot) {
+            handle.get();
+        }
+    }
+
+    public synchronized boolean isIdle() {
+        return inFlight == 0;
+    }
+
+    public void addTelemetry(Telemetry telemetry) {
+        List<Handle> snapshot;
+        int branch;
+        synchronized (this) {
+            snapshot = new ArrayList<>(handles);
+            branch = selected;
+        }
+
+        int done = 0;
+        for (Handle handle : snapshot) {
+            if (handle.isDone()) {
+                done++;
+            }
+        }
+        telemetry.addData("Trajectories", "%d/%d built, %d cache hits, branch %d",
+                done, snapshot.size(), cache.getHits(), branch);
+        for (Handle handle : snapshot) {
+            double ms = handle.getBuildTime();
+            String status;
+            if (ms >= 0) {
+                status = String.format("%.0f ms", ms);
+            } else if (handle.queued) {
+                status = "building";
+            } else {
+                status = "deferred";
+            }
+            telemetry.addData(handle.name, status);
+        }
+    }
+}
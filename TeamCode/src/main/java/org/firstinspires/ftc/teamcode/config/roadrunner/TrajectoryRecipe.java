@@ -0,0 +1,249 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.TrajectoryActionBuilder;
+import com.acmerobotics.roadrunner.Vector2d;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The inputs of a {@link TrajectoryActionBuilder} chain, recorded instead of built.
+ * <p>
+ * Mirrors the builder calls the autos use, so a chain can be hashed (see {@link TrajectoryCache}) before
+ * paying for path generation and profiling, and replayed onto a real builder when it has to be built.
+ */
+public final class TrajectoryRecipe {
+    enum OpType {
+        SET_TANGENT,
+        LINE_TO_X,
+        LINE_TO_Y,
+        STRAFE_TO,
+        STRAFE_TO_CONSTANT_HEADING,
+        STRAFE_TO_LINEAR_HEADING,
+        SPLINE_TO,
+        SPLINE_TO_CONSTANT_HEADING
+    }
+
+    static final class Op {
+        final OpType type;
+        final double[] args;
+
+        Op(OpType type, double... args) {
+            this.type = type;
+            this.args = args;
+        }
+    }
+
+    // how far apart (in inches and radians) two recipes can be and still chain
+    private static final double JUNCTION_TOLERANCE = 1e-3;
+
+    public final Pose2d beginPose;
+    final List<Op> ops = new ArrayList<>();
+
+    public TrajectoryRecipe(Pose2d beginPose) {
+        this.beginPose = beginPose;
+    }
+
+    private TrajectoryRecipe(Pose2d beginPose, List<Op> ops) {
+        this.beginPose = beginPose;
+        this.ops.addAll(ops);
+    }
+
+    public TrajectoryRecipe setTangent(double r) {
+        ops.add(new Op(OpType.SET_TANGENT, r));
+        return this;
+    }
+
+    public TrajectoryRecipe lineToX(double posX) {
+        ops.add(new Op(OpType.LINE_TO_X, posX));
+        return this;
+    }
+
+    public TrajectoryRecipe lineToY(double posY) {
+        ops.add(new Op(OpType.LINE_TO_Y, posY));
+        return this;
+    }
+
+    public TrajectoryRecipe strafeTo(Vector2d pos) {
+        ops.add(new Op(OpType.STRAFE_TO, pos.x, pos.y));
+        return this;
+    }
+
+    public TrajectoryRecipe strafeToConstantHeading(Vector2d pos) {
+        ops.add(new Op(OpType.STRAFE_TO_CONSTANT_HEADING, pos.x, pos.y));
+        return this;
+    }
+
+    public TrajectoryRecipe strafeToLinearHeading(Vector2d pos, double heading) {
+        ops.add(new Op(OpType.STRAFE_TO_LINEAR_HEADING, pos.x, pos.y, heading));
+        return this;
+    }
+
+    public TrajectoryRecipe splineTo(Vector2d pos, double tangent) {
+        ops.add(new Op(OpType.SPLINE_TO, pos.x, pos.y, tangent));
+        return this;
+    }
+
+    public TrajectoryRecipe splineToConstantHeading(Vector2d pos, double tangent) {
+        ops.add(new Op(OpType.SPLINE_TO_CONSTANT_HEADING, pos.x, pos.y, tangent));
+        return this;
+    }
+
+    /**
+     * A recipe that drives this one and then next as one builder chain, so the two are profiled together.
+     * Where the path tangent carries over the junction the robot goes through it at speed; where it doesn't,
+     * the builder splits the trajectory there just like two separate recipes would, but the follower hands
+     * over without stopping the motors for a loop.
+     * @throws IllegalArgumentException if next doesn't begin where this recipe ends
+     */
+    public TrajectoryRecipe then(TrajectoryRecipe next) {
+        double[] end = endState();
+        Pose2d nextBegin = next.beginPose;
+        if (Math.abs(nextBegin.position.x - end[0]) > JUNCTION_TOLERANCE
+                || Math.abs(nextBegin.position.y - end[1]) > JUNCTION_TOLERANCE
+                || Math.abs(Math.IEEEremainder(nextBegin.heading.toDouble() - end[2], 2 * Math.PI))
+                        > JUNCTION_TOLERANCE) {
+            throw new IllegalArgumentException("recipe doesn't begin where the previous one ends");
+        }
+
+        TrajectoryRecipe chained = new TrajectoryRecipe(beginPose, ops);
+        // a fresh builder starts along the begin heading unless told otherwise
+        if (next.ops.isEmpty() || next.ops.get(0).type != OpType.SET_TANGENT) {
+            chained.ops.add(new Op(OpType.SET_TANGENT, nextBegin.heading.toDouble()));
+        }
+        chained.ops.addAll(next.ops);
+        return chained;
+    }
+
+    /**
+     * Where the robot ends up, worked out from the calls without building anything.
+     */
+    public Pose2d endPose() {
+        double[] end = endState();
+        return new Pose2d(end[0], end[1], end[2]);
+    }
+
+    /**
+     * Direction of travel at the end of the recipe (in radians).
+     */
+    public double endTangent() {
+        return endState()[3];
+    }
+
+    // x, y, heading, tangent
+    private double[] endState() {
+        double x = beginPose.position.x, y = beginPose.position.y;
+        double heading = beginPose.heading.toDouble();
+        double tangent = heading;
+        for (Op op : ops) {
+            double[] a = op.args;
+            switch (op.type) {
+                case SET_TANGENT:
+                    tangent = a[0];
+                    break;
+                case LINE_TO_X:
+                    y += (a[0] - x) * Math.tan(tangent);
+                    x = a[0];
+                    break;
+                case LINE_TO_Y:
+                    x += (a[0] - y) / Math.tan(tangent);
+                    y = a[0];
+                    break;
+                case STRAFE_TO:
+                case STRAFE_TO_CONSTANT_HEADING:
+                case STRAFE_TO_LINEAR_HEADING:
+                    if (a[0] != x || a[1] != y) {
+                        tangent = Math.atan2(a[1] - y, a[0] - x);
+                    }
+                    x = a[0];
+                    y = a[1];
+                    if (op.type == OpType.STRAFE_TO_LINEAR_HEADING) {
+                        heading = a[2];
+                    }
+                    break;
+                case SPLINE_TO:
+                    x = a[0];
+                    y = a[1];
+                    // tangent heading interpolation (RR's TangentPath) keeps the heading at a constant offset
+                    // from the tangent, whatever it was where the segment began; a reversed spline (tangent
+                    // set to heading + π) ends facing away from its end tangent
+                    heading = Math.IEEEremainder(a[2] + (heading - tangent), 2 * Math.PI);
+                    tangent = a[2];
+                    break;
+                case SPLINE_TO_CONSTANT_HEADING:
+                    x = a[0];
+                    y = a[1];
+                    tangent = a[2];
+                    break;
+            }
+        }
+        return new double[]{x, y, heading, tangent};
+    }
+
+    /**
+     * Replays the recorded calls onto the builder.
+     */
+    public TrajectoryActionBuilder applyTo(TrajectoryActionBuilder b) {
+        for (Op op : ops) {
+            double[] a = op.args;
+            switch (op.type) {
+                case SET_TANGENT:
+                    b = b.setTangent(a[0]);
+                    break;
+                case LINE_TO_X:
+                    b = b.lineToX(a[0]);
+                    break;
+                case LINE_TO_Y:
+                    b = b.lineToY(a[0]);
+                    break;
+                case STRAFE_TO:
+                    b = b.strafeTo(new Vector2d(a[0], a[1]));
+                    break;
+                case STRAFE_TO_CONSTANT_HEADING:
+                    b = b.strafeToConstantHeading(new Vector2d(a[0], a[1]));
+                    break;
+                case STRAFE_TO_LINEAR_HEADING:
+                    b = b.strafeToLinearHeading(new Vector2d(a[0], a[1]), a[2]);
+                    break;
+                case SPLINE_TO:
+                    b = b.splineTo(new Vector2d(a[0], a[1]), a[2]);
+                    break;
+                case SPLINE_TO_CONSTANT_HEADING:
+                    b = b.splineToConstantHeading(new Vector2d(a[0], a[1]), a[2]);
+                    break;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * 64-bit FNV-1a of the begin pose and every recorded call, chained onto seed.
+     */
+    public long hash(long seed) {
+        long h = seed;
+        h = mix(h, beginPose.position.x);
+        h = mix(h, beginPose.position.y);
+        h = mix(h, beginPose.heading.toDouble());
+        h = mix(h, ops.size());
+        for (Op op : ops) {
+            h = mix(h, op.type.ordinal());
+            for (double arg : op.args) {
+                h = mix(h, arg);
+            }
+        }
+        return h;
+    }
+
+    static long mix(long h, double value) {
+        return mix(h, Double.doubleToLongBits(value));
+    }
+
+    static long mix(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h ^= (value >>> (8 * i)) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,142 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Samples the battery voltage on its own thread so the control loop never waits on a hub transaction for it.
+ * <p>
+ * Raw samples go through a median-of-three (drops single-sample brownout spikes) and then a first order
+ * low-pass. The result is published through volatile fields, so {@link #getVoltage()} is a plain read.
+ * The thread parks itself once nobody has asked for the voltage in a while and restarts on the next read,
+ * and stops with the op mode.
+ */
+@Config
+public final class VoltageSampler extends PollingService {
+    public static class Params {
+        public double sampleRateHz = 50;
+        // low-pass time constant (in seconds)
+        public double filterTimeConstant = 0.1;
+        // stop sampling after this long without a read (in seconds)
+        public double idleTimeout = 5;
+    }
+
+    public static Params PARAMS = new Params();
+
+    // only one sampler should be talking to the hub at a time; a new drive replaces the old one
+    private static VoltageSampler active;
+
+    private final VoltageSensor sensor;
+
+    private volatile double voltage;
+    private volatile long lastSampleNanos;
+    private volatile double sampleRateHz;
+    private volatile long lastReadNanos;
+    // sensor reads so far, each is a hub transaction
+    private volatile long samples;
+
+    // median-of-three window, reset by onStart() and otherwise only touched by the sampling thread
+    private final double[] window = new double[3];
+    private int windowIndex, windowSize;
+
+    public VoltageSampler(VoltageSensor sensor) {
+        super("VoltageSampler");
+        this.sensor = sensor;
+
+        // getVoltage() returns this until the thread has filled its window
+        voltage = sensor.getVoltage();
+        samples = 1;
+        lastSampleNanos = System.nanoTime();
+        lastReadNanos = lastSampleNanos;
+    }
+
+    @Override
+    protected void onStart() {
+        synchronized (VoltageSampler.class) {
+            if (active != null && active != this) {
+                active.stop();
+            }
+            active = this;
+        }
+        windowIndex = 0;
+        windowSize = 0;
+    }
+
+    @Override
+    protected double getRateHz() {
+        return PARAMS.sampleRateHz;
+    }
+
+    /**
+     * Latest filtered voltage. Never blocks on hardware.
+     */
+    public double getVoltage() {
+        lastReadNanos = System.nanoTime();
+        if (!isRunning()) {
+            start();
+        }
+        return voltage;
+    }
+
+    /**
+     * Time since the published voltage was last updated (in seconds).
+     */
+    public double getStaleness() {
+        return (System.nanoTime() - lastSampleNanos) * 1e-9;
+    }
+
+    public double getSampleRate() {
+        return sampleRateHz;
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+
+    public void addTelemetry(TelemetryPacket p) {
+        p.put("voltage", voltage);
+        p.put("voltage staleness (ms)", getStaleness() * 1e3);
+        p.put("voltage sample rate (Hz)", sampleRateHz);
+    }
+
+    @Override
+    protected boolean sample(AtomicBoolean stop) {
+        if ((System.nanoTime() - lastReadNanos) * 1e-9 > PARAMS.idleTimeout) {
+            return false;
+        }
+
+        double raw = sensor.getVoltage();
+        samples++;
+        long now = System.nanoTime();
+        if (stop.get()) {
+            return false;
+        }
+
+        window[windowIndex] = raw;
+        windowIndex = (windowIndex + 1) % 3;
+        double dt = (now - lastSampleNanos) * 1e-9;
+        double filtered;
+        if (windowSize < 3) {
+            windowSize++;
+            filtered = raw;
+        } else {
+            filtered = filter(dt);
+        }
+
+        sampleRateHz = sampleRateHz == 0 ? 1 / dt : 0.9 * sampleRateHz + 0.1 / dt;
+        voltage = filtered;
+        lastSampleNanos = now;
+        return true;
+    }
+
+    private double filter(double dt) {
+        double a = window[0], b = window[1], c = window[2];
+        double median = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+
+        double alpha = dt / (PARAMS.filterTimeConstant + dt);
+        return voltage + alpha * (median - voltage);
+    }
+}
@@ -0,0 +1,25 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+/**
+ * A step of {@link MecanumDrive.DriveCommandPipeline} between feedforward and the motor write. Stages run
+ * in order and edit the powers in place, indexed by {@link DriveController#LEFT_FRONT} and friends.
+ */
+public interface WheelPowerStage {
+    /**
+     * Scales all four powers down by the same factor when any of them is above 1, so the motors don't
+     * clip some wheels and not others (which changes the direction the robot drives in).
+     */
+    WheelPowerStage NORMALIZE = (controller, powers) -> {
+        double max = 1;
+        for (double power : powers) {
+            max = Math.max(max, Math.abs(power));
+        }
+        if (max > 1) {
+            for (int i = 0; i < powers.length; i++) {
+                powers[i] /= max;
+            }
+        }
+    };
+
+    void apply(DriveController controller, double[] powers);
+}
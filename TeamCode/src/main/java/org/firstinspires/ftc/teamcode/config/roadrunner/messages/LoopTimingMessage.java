@@ -0,0 +1,21 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.messages;
+
+public final class LoopTimingMessage {
+    public long timestamp;
+    public String phase;
+    public long count;
+    public double p50;
+    public double p95;
+    public double p99;
+    public double max;
+
+    public LoopTimingMessage(String phase, long count, double p50, double p95, double p99, double max) {
+        this.timestamp = System.nanoTime();
+        this.phase = phase;
+        this.count = count;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+    }
+}
@@ -9,11 +9,19 @@ public final class MecanumCommandMessage {
     public double rightFrontPower;
 
     public MecanumCommandMessage(double voltage, double leftFrontPower, double leftBackPower, double rightBackPower, double rightFrontPower) {
+        set(voltage, leftFrontPower, leftBackPower, rightBackPower, rightFrontPower);
+    }
+
+    /**
+     * Overwrites this message in place so one instance can be reused every loop.
+     */
+    public MecanumCommandMessage set(double voltage, double leftFrontPower, double leftBackPower, double rightBackPower, double rightFrontPower) {
         this.timestamp = System.nanoTime();
         this.voltage = voltage;
         this.leftFrontPower = leftFrontPower;
         this.leftBackPower = leftBackPower;
         this.rightBackPower = rightBackPower;
         this.rightFrontPower = rightFrontPower;
+        return this;
     }
 }
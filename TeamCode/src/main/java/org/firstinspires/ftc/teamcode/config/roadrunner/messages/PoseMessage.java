@@ -14,5 +14,20 @@ public final class PoseMessage {
         this.y = pose.position.y;
         this.heading = pose.heading.toDouble();
     }
+
+    public PoseMessage(double x, double y, double heading) {
+        set(x, y, heading);
+    }
+
+    /**
+     * Overwrites this message in place so one instance can be reused every loop.
+     */
+    public PoseMessage set(double x, double y, double heading) {
+        this.timestamp = System.nanoTime();
+        this.x = x;
+        this.y = y;
+        this.heading = heading;
+        return this;
+    }
 }
 
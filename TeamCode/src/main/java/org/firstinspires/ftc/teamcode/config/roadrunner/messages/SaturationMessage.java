@@ -0,0 +1,29 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.messages;
+
+public final class SaturationMessage {
+    public long timestamp;
+    public double requestedPower;
+    public double translationScale;
+    public double rotationScale;
+    public long saturatedTicks;
+    public long ticks;
+
+    public SaturationMessage(double requestedPower, double translationScale, double rotationScale,
+                             long saturatedTicks, long ticks) {
+        set(requestedPower, translationScale, rotationScale, saturatedTicks, ticks);
+    }
+
+    /**
+     * Overwrites this message in place so one instance can be reused every loop.
+     */
+    public SaturationMessage set(double requestedPower, double translationScale, double rotationScale,
+                                 long saturatedTicks, long ticks) {
+        this.timestamp = System.nanoTime();
+        this.requestedPower = requestedPower;
+        this.translationScale = translationScale;
+        this.rotationScale = rotationScale;
+        this.saturatedTicks = saturatedTicks;
+        this.ticks = ticks;
+        return this;
+    }
+}
@@ -0,0 +1,26 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.messages;
+
+public final class TagAlignMessage {
+    public long timestamp;
+    public int tagId;
+    public boolean aligned;
+    public double seconds;
+    public int frames;
+    public double longestDropout;
+    public double axialError;
+    public double lateralError;
+    public double headingError;
+
+    public TagAlignMessage(int tagId, boolean aligned, double seconds, int frames, double longestDropout,
+                           double axialError, double lateralError, double headingError) {
+        this.timestamp = System.nanoTime();
+        this.tagId = tagId;
+        this.aligned = aligned;
+        this.seconds = seconds;
+        this.frames = frames;
+        this.longestDropout = longestDropout;
+        this.axialError = axialError;
+        this.lateralError = lateralError;
+        this.headingError = headingError;
+    }
+}
@@ -0,0 +1,31 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.messages;
+
+public final class TagFusionMessage {
+    public long timestamp;
+    public int accepted;
+    public int rejected;
+    public long totalAccepted;
+    public long totalRejected;
+    public double maxDistance;
+
+    public TagFusionMessage(int accepted, int rejected, long totalAccepted, long totalRejected,
+                            double maxDistance) {
+        this.timestamp = System.nanoTime();
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.totalAccepted = totalAccepted;
+        this.totalRejected = totalRejected;
+        this.maxDistance = maxDistance;
+    }
+
+    public TagFusionMessage set(int accepted, int rejected, long totalAccepted, long totalRejected,
+                                double maxDistance) {
+        this.timestamp = System.nanoTime();
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.totalAccepted = totalAccepted;
+        this.totalRejected = totalRejected;
+        this.maxDistance = maxDistance;
+        return this;
+    }
+}
@@ -3,15 +3,50 @@ package org.firstinspires.ftc.teamcode.config.roadrunner.messages;
 import com.acmerobotics.roadrunner.ftc.PositionVelocityPair;
 
 public final class ThreeDeadWheelInputsMessage {
+    /**
+     * Same fields (so the same log schema) as {@link PositionVelocityPair}, but overwritable.
+     */
+    public static final class Reading {
+        public int position;
+        public int velocity;
+    }
+
     public long timestamp;
-    public PositionVelocityPair par0;
-    public PositionVelocityPair par1;
-    public PositionVelocityPair perp;
+    public final Reading par0 = new Reading();
+    public final Reading par1 = new Reading();
+    public final Reading perp = new Reading();
 
     public ThreeDeadWheelInputsMessage(PositionVelocityPair par0, PositionVelocityPair par1, PositionVelocityPair perp) {
-        this.timestamp = System.nanoTime();
-        this.par0 = par0;
-        this.par1 = par1;
-        this.perp = perp;
+        if (par0 != null) {
+            set(par0, par1, perp);
+        }
+    }
+
+    public ThreeDeadWheelInputsMessage() {
+    }
+
+    /**
+     * Overwrites this message in place so one instance can be reused every loop.
+     */
+    public ThreeDeadWheelInputsMessage set(PositionVelocityPair par0, PositionVelocityPair par1, PositionVelocityPair perp) {
+        return set(System.nanoTime(), par0, par1, perp);
+    }
+
+    public ThreeDeadWheelInputsMessage set(long timestamp, PositionVelocityPair par0, PositionVelocityPair par1,
+                                           PositionVelocityPair perp) {
+        return set(timestamp, par0.position, par0.velocity, par1.position, par1.velocity,
+                perp.position, perp.velocity);
+    }
+
+    public ThreeDeadWheelInputsMessage set(long timestamp, int par0Pos, int par0Vel, int par1Pos, int par1Vel,
+                                           int perpPos, int perpVel) {
+        this.timestamp = timestamp;
+        par0.position = par0Pos;
+        par0.velocity = par0Vel;
+        par1.position = par1Pos;
+        par1.velocity = par1Vel;
+        perp.position = perpPos;
+        perp.velocity = perpVel;
+        return this;
     }
 }
\ No newline at end of file
@@ -0,0 +1,285 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.replay;
+
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.ftc.Encoder;
+
+import org.firstinspires.ftc.teamcode.config.roadrunner.Localizer;
+import org.firstinspires.ftc.teamcode.config.roadrunner.ThreeDeadWheelLocalizer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Re-runs the dead wheel readings in a FlightRecorder log through a {@link Localizer}, off the robot, to
+ * check that a localizer or filter change still produces the same path and to time it.
+ * <p>
+ * The log needs THREE_DEAD_WHEEL_INPUTS (written by {@link ThreeDeadWheelLocalizer} every update, or at
+ * loop rate while the odometry thread runs). THREE_DEAD_WHEEL_PARAMS and MECANUM_PARAMS from the same
+ * log are applied first, so the replay uses the geometry the robot had.
+ * <p>
+ * From the command line (paths are relative to where gradlew is run):
+ * <pre>
+ * ./gradlew :TeamCode:localizerReplay --args="robot.log [--out trace.csv] [--baseline trace.csv]
+ *         [--tolerance 0.01] [--heading-tolerance 0.001] [--passes 20]"
+ * </pre>
+ * prints updates per second and, with a baseline, the largest difference from it; the exit code is 1 if
+ * the position is off by more than the tolerance (in inches), the heading by more than the heading
+ * tolerance (in radians), or the traces don't line up.
+ */
+public final class LocalizerReplay {
+    public interface LocalizerFactory {
+        Localizer create(Encoder par0, Encoder par1, Encoder perp, double inPerTick);
+    }
+
+    /**
+     * The pose after every replayed update.
+     */
+    public static final class Trace {
+        public final long[] timestamps;
+        public final double[] xs, ys, headings;
+
+        public Trace(int size) {
+            timestamps = new long[size];
+            xs = new double[size];
+            ys = new double[size];
+            headings = new double[size];
+        }
+
+        public int size() {
+            return timestamps.length;
+        }
+    }
+
+    public static final class Diff {
+        public int compared;
+        // the traces have different lengths
+        public boolean mismatched;
+        public double maxPositionError, rmsPositionError, maxHeadingError;
+
+        /**
+         * Whether the traces line up and agree within tolerance (inches) and headingTolerance (radians).
+         */
+        public boolean passes(double tolerance, double headingTolerance) {
+            return !mismatched && maxPositionError <= tolerance && maxHeadingError <= headingTolerance;
+        }
+    }
+
+    // readings in log order, par0, par1, perp position then velocity
+    private static final int STRIDE = 6;
+
+    private final long[] timestamps;
+    private final int[] readings;
+    private final double inPerTick;
+
+    private final ReplayEncoder par0 = new ReplayEncoder(), par1 = new ReplayEncoder(),
+            perp = new ReplayEncoder();
+
+    public LocalizerReplay(File log) throws IOException {
+        Map<String, List<Object>> messages = LogReader.read(log);
+
+        List<Object> inputs = messages.get("THREE_DEAD_WHEEL_INPUTS");
+        if (inputs == null || inputs.size() < 2) {
+            throw new IOException(log + " has nothing to replay, it needs THREE_DEAD_WHEEL_INPUTS");
+        }
+        timestamps = new long[inputs.size()];
+        readings = new int[inputs.size() * STRIDE];
+        for (int i = 0; i < inputs.size(); i++) {
+            Object m = inputs.get(i);
+            timestamps[i] = LogReader.number(m, "timestamp").longValue();
+            int o = i * STRIDE;
+            readings[o] = LogReader.number(m, "par0.position").intValue();
+            readings[o + 1] = LogReader.number(m, "par0.velocity").intValue();
+            readings[o + 2] = LogReader.number(m, "par1.position").intValue();
+            readings[o + 3] = LogReader.number(m, "par1.velocity").intValue();
+            readings[o + 4] = LogReader.number(m, "perp.position").intValue();
+            readings[o + 5] = LogReader.number(m, "perp.velocity").intValue();
+        }
+
+        List<Object> deadWheelParams = messages.get("THREE_DEAD_WHEEL_PARAMS");
+        if (deadWheelParams != null && !deadWheelParams.isEmpty()) {
+            Object p = deadWheelParams.get(deadWheelParams.size() - 1);
+            ThreeDeadWheelLocalizer.Params params = new ThreeDeadWheelLocalizer.Params();
+            params.par0YTicks = LogReader.number(p, "par0YTicks").doubleValue();
+            params.par1YTicks = LogReader.number(p, "par1YTicks").doubleValue();
+            params.perpXTicks = LogReader.number(p, "perpXTicks").doubleValue();
+            ThreeDeadWheelLocalizer.PARAMS = params;
+        }
+
+        List<Object> driveParams = messages.get("MECANUM_PARAMS");
+        if (driveParams == null || driveParams.isEmpty()) {
+            throw new IOException(log + " has no MECANUM_PARAMS");
+        }
+        inPerTick = LogReader.number(driveParams.get(driveParams.size() - 1), "inPerTick").doubleValue();
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    private void load(int i) {
+        int o = i * STRIDE;
+        par0.set(readings[o], readings[o + 1]);
+        par1.set(readings[o + 2], readings[o + 3]);
+        perp.set(readings[o + 4], readings[o + 5]);
+    }
+
+    /**
+     * Replays every reading after the first (which the localizer takes as its starting point) from the
+     * given pose.
+     */
+    public Trace run(LocalizerFactory factory, Pose2d start) {
+        load(0);
+        Localizer localizer = factory.create(par0, par1, perp, inPerTick);
+
+        Trace trace = new Trace(size() - 1);
+        Pose2d pose = start;
+        for (int i = 1; i < size(); i++) {
+            load(i);
+            pose = pose.plus(localizer.update().value());
+            trace.timestamps[i - 1] = timestamps[i];
+            trace.xs[i - 1] = pose.position.x;
+            trace.ys[i - 1] = pose.position.y;
+            trace.headings[i - 1] = pose.heading.toDouble();
+        }
+        return trace;
+    }
+
+    /**
+     * Localizer updates per second over the whole log, after a warmup pass, best of the passes (the
+     * others lost time to the JIT or GC).
+     */
+    public double benchmark(LocalizerFactory factory, int passes) {
+        run(factory, new Pose2d(0, 0, 0));
+
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < passes; pass++) {
+            load(0);
+            Localizer localizer = factory.create(par0, par1, perp, inPerTick);
+            long start = System.nanoTime();
+            for (int i = 1; i < size(); i++) {
+                load(i);
+                localizer.update();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (size() - 1) / (best * 1e-9);
+    }
+
+    public static Diff compare(Trace trace, Trace baseline) {
+        Diff diff = new Diff();
+        diff.mismatched = trace.size() != baseline.size();
+        diff.compared = Math.min(trace.size(), baseline.size());
+
+        double sumSquared = 0;
+        for (int i = 0; i < diff.compared; i++) {
+            if (trace.timestamps[i] != baseline.timestamps[i]) {
+                diff.mismatched = true;
+            }
+            double error = Math.hypot(trace.xs[i] - baseline.xs[i], trace.ys[i] - baseline.ys[i]);
+            diff.maxPositionError = Math.max(diff.maxPositionError, error);
+            sumSquared += error * error;
+            diff.maxHeadingError = Math.max(diff.maxHeadingError,
+                    Math.abs(Math.IEEEremainder(trace.headings[i] - baseline.headings[i], 2 * Math.PI)));
+        }
+        diff.rmsPositionError = diff.compared == 0 ? 0 : Math.sqrt(sumSquared / diff.compared);
+        return diff;
+    }
+
+    public static void writeTrace(Trace trace, File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("timestamp,x,y,heading");
+            for (int i = 0; i < trace.size(); i++) {
+                // full precision, so a baseline compares exactly against itself
+                out.println(trace.timestamps[i] + "," + trace.xs[i] + "," + trace.ys[i] + ","
+                        + trace.headings[i]);
+            }
+        }
+    }
+
+    public static Trace readTrace(File file) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            in.readLine();
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (!line.isEmpty()) {
+                    rows.add(line.split(","));
+                }
+            }
+        }
+
+        Trace trace = new Trace(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            String[] row = rows.get(i);
+            trace.timestamps[i] = Long.parseLong(row[0]);
+            trace.xs[i] = Double.parseDouble(row[1]);
+            trace.ys[i] = Double.parseDouble(row[2]);
+            trace.headings[i] = Double.parseDouble(row[3]);
+        }
+        return trace;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: LocalizerReplay <log> [--out trace.csv] [--baseline trace.csv]"
+                    + " [--tolerance inches] [--heading-tolerance radians] [--passes n]");
+            System.exit(2);
+        }
+
+        File log = new File(args[0]);
+        File out = null, baseline = null;
+        double tolerance = 1e-6;
+        double headingTolerance = 1e-6;
+        int passes = 20;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--out":
+                    out = new File(args[i + 1]);
+                    break;
+                case "--baseline":
+                    baseline = new File(args[i + 1]);
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--heading-tolerance":
+                    headingTolerance = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--passes":
+                    passes = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        LocalizerReplay replay = new LocalizerReplay(log);
+        LocalizerFactory factory = ThreeDeadWheelLocalizer::new;
+
+        Trace trace = replay.run(factory, new Pose2d(0, 0, 0));
+        System.out.printf("%d updates, final pose %.3f %.3f %.2f deg%n", trace.size(),
+                trace.xs[trace.size() - 1], trace.ys[trace.size() - 1],
+                Math.toDegrees(trace.headings[trace.size() - 1]));
+        System.out.printf("%.0f updates/s%n", replay.benchmark(factory, passes));
+
+        if (out != null) {
+            writeTrace(trace, out);
+        }
+
+        if (baseline != null) {
+            Diff diff = compare(trace, readTrace(baseline));
+            System.out.printf("vs baseline: %d compared, max %.6f in, rms %.6f in, heading %.6f deg%s%n",
+                    diff.compared, diff.maxPositionError, diff.rmsPositionError,
+                    Math.toDegrees(diff.maxHeadingError), diff.mismatched ? ", traces don't line up" : "");
+            if (!diff.passes(tolerance, headingTolerance)) {
+                System.exit(1);
+            }
+        }
+    }
+}
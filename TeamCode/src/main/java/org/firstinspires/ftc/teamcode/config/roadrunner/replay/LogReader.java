@@ -0,0 +1,179 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a FlightRecorder log (the .log files under /sdcard/FIRST/RoadRunner/logs) back into plain Java
+ * objects, without the SDK, so it runs on a desktop JVM.
+ * <p>
+ * The log is self-describing: after the "RR" magic and a version short, it's a sequence of entries, each
+ * an int tag. Tag 0 declares a channel (its name and the schema of its messages), tag 1 is a message (the
+ * channel's index in declaration order and the value). Schemas are an int tag too: 0 struct (field count,
+ * then name and schema per field), 1 int, 2 long, 3 double, 4 string, 5 boolean, 6 enum (constant count
+ * and names), 7 array (element schema). Values are big endian; strings and arrays are length prefixed,
+ * enums are ordinals.
+ * <p>
+ * Structs come back as maps in field order, enums as their constant names and arrays as lists.
+ */
+public final class LogReader {
+    private static final int CHANNEL = 0, MESSAGE = 1;
+    private static final int STRUCT = 0, INT = 1, LONG = 2, DOUBLE = 3, STRING = 4, BOOLEAN = 5, ENUM = 6,
+            ARRAY = 7;
+
+    private LogReader() {
+    }
+
+    private static final class Schema {
+        final int tag;
+        // struct fields, enum constants or the array element
+        final String[] names;
+        final Schema[] fields;
+
+        Schema(int tag, String[] names, Schema[] fields) {
+            this.tag = tag;
+            this.names = names;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Every message in the log, by channel, in the order they were written.
+     */
+    public static Map<String, List<Object>> read(File file) throws IOException {
+        ByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buf.remaining() < 4 || buf.get() != 'R' || buf.get() != 'R') {
+            throw new IOException(file + " isn't a FlightRecorder log");
+        }
+        buf.getShort();
+
+        List<String> names = new ArrayList<>();
+        List<Schema> schemas = new ArrayList<>();
+        Map<String, List<Object>> messages = new HashMap<>();
+        try {
+            while (buf.hasRemaining()) {
+                int entry = buf.getInt();
+                if (entry == CHANNEL) {
+                    String name = readString(buf);
+                    names.add(name);
+                    schemas.add(readSchema(buf));
+                    messages.put(name, new ArrayList<>());
+                } else if (entry == MESSAGE) {
+                    int ch = buf.getInt();
+                    if (ch < 0 || ch >= names.size()) {
+                        throw new IOException("message on undeclared channel " + ch);
+                    }
+                    messages.get(names.get(ch)).add(readValue(buf, schemas.get(ch)));
+                } else {
+                    throw new IOException("unknown entry " + entry + " at " + (buf.position() - 4));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            // the robot was cut off mid-write, keep what's complete
+        }
+        return messages;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Schema readSchema(ByteBuffer buf) throws IOException {
+        int tag = buf.getInt();
+        switch (tag) {
+            case STRUCT: {
+                int n = buf.getInt();
+                String[] names = new String[n];
+                Schema[] fields = new Schema[n];
+                for (int i = 0; i < n; i++) {
+                    names[i] = readString(buf);
+                    fields[i] = readSchema(buf);
+                }
+                return new Schema(tag, names, fields);
+            }
+            case ENUM: {
+                String[] constants = new String[buf.getInt()];
+                for (int i = 0; i < constants.length; i++) {
+                    constants[i] = readString(buf);
+                }
+                return new Schema(tag, constants, null);
+            }
+            case ARRAY:
+                return new Schema(tag, null, new Schema[]{readSchema(buf)});
+            case INT:
+            case LONG:
+            case DOUBLE:
+            case STRING:
+            case BOOLEAN:
+                return new Schema(tag, null, null);
+            default:
+                throw new IOException("unknown schema " + tag);
+        }
+    }
+
+    private static Object readValue(ByteBuffer buf, Schema schema) {
+        switch (schema.tag) {
+            case STRUCT: {
+                Map<String, Object> struct = new LinkedHashMap<>();
+                for (int i = 0; i < schema.names.length; i++) {
+                    struct.put(schema.names[i], readValue(buf, schema.fields[i]));
+                }
+                return struct;
+            }
+            case INT:
+                return buf.getInt();
+            case LONG:
+                return buf.getLong();
+            case DOUBLE:
+                return buf.getDouble();
+            case STRING:
+                return readString(buf);
+            case BOOLEAN:
+                return buf.get() != 0;
+            case ENUM:
+                return schema.names[buf.getInt()];
+            default: {
+                int n = buf.getInt();
+                List<Object> array = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    array.add(readValue(buf, schema.fields[0]));
+                }
+                return array;
+            }
+        }
+    }
+
+    /**
+     * Follows a dotted path of struct fields ("par0.position") to a number.
+     */
+    public static Number number(Object message, String path) {
+        Object value = message;
+        for (String field : path.split("\\.")) {
+            if (!(value instanceof Map)) {
+                throw new IllegalArgumentException("no " + path + " in " + message);
+            }
+            value = ((Map<?, ?>) value).get(field);
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("no " + path + " in " + message);
+        }
+        return (Number) value;
+    }
+}
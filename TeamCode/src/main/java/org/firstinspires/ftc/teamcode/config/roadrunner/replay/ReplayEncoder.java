@@ -0,0 +1,40 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.replay;
+
+import com.acmerobotics.roadrunner.ftc.Encoder;
+import com.acmerobotics.roadrunner.ftc.PositionVelocityPair;
+import com.qualcomm.robotcore.hardware.DcMotorController;
+import com.qualcomm.robotcore.hardware.DcMotorSimple;
+
+/**
+ * An {@link Encoder} that returns whatever reading it was last given. Logged readings already have the
+ * direction applied, so the direction is only stored.
+ */
+public final class ReplayEncoder implements Encoder {
+    private PositionVelocityPair reading = new PositionVelocityPair(0, 0);
+    private DcMotorSimple.Direction direction = DcMotorSimple.Direction.FORWARD;
+
+    public void set(int position, int velocity) {
+        reading = new PositionVelocityPair(position, velocity);
+    }
+
+    @Override
+    public PositionVelocityPair getPositionAndVelocity() {
+        return reading;
+    }
+
+    @Override
+    public DcMotorController getController() {
+        // there's no hub to bulk read from
+        return null;
+    }
+
+    @Override
+    public DcMotorSimple.Direction getDirection() {
+        return direction;
+    }
+
+    @Override
+    public void setDirection(DcMotorSimple.Direction direction) {
+        this.direction = direction;
+    }
+}
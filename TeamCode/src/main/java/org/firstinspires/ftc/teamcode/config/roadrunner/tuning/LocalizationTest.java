@@ -23,13 +23,11 @@ public class LocalizationTest extends LinearOpMode {
             waitForStart();
 
             while (opModeIsActive()) {
-                drive.setDrivePowers(new PoseVelocity2d(
-                        new Vector2d(
-                                -gamepad1.left_stick_y,
-                                -gamepad1.left_stick_x
-                        ),
+                drive.setDrivePowers(
+                        -gamepad1.left_stick_y,
+                        -gamepad1.left_stick_x,
                         -gamepad1.right_stick_x
-                ));
+                );
 
                 drive.updatePoseEstimate();
 
@@ -0,0 +1,140 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.tuning;
+
+import com.acmerobotics.dashboard.FtcDashboard;
+import com.acmerobotics.dashboard.telemetry.MultipleTelemetry;
+import com.acmerobotics.roadrunner.DualNum;
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.Time;
+import com.acmerobotics.roadrunner.Twist2dDual;
+import com.acmerobotics.roadrunner.Vector2dDual;
+import com.acmerobotics.roadrunner.ftc.Encoder;
+import com.acmerobotics.roadrunner.ftc.PositionVelocityPair;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+
+import org.firstinspires.ftc.teamcode.config.roadrunner.LatencyHistogram;
+import org.firstinspires.ftc.teamcode.config.roadrunner.MecanumDrive;
+import org.firstinspires.ftc.teamcode.config.roadrunner.ThreeDeadWheelLocalizer;
+import org.firstinspires.ftc.teamcode.config.roadrunner.replay.ReplayEncoder;
+
+/**
+ * Times one dead wheel update the old way (coefficients recomputed from PARAMS, DualNums, a Twist2dDual and
+ * Pose2d.plus every call) against {@link ThreeDeadWheelLocalizer#integrate()}.
+ * <p>
+ * Both read the same {@link ReplayEncoder}s, fed a made up path (curving, strafing a little) before each
+ * iteration, so they integrate the same non-zero deltas and only the math and allocation differ. The two
+ * final poses are shown too; they should agree. No hardware is touched.
+ */
+public final class LocalizerBenchmark extends LinearOpMode {
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 20000;
+    // simulated loop period (in seconds)
+    private static final double DT = 0.005;
+
+    @Override
+    public void runOpMode() throws InterruptedException {
+        telemetry = new MultipleTelemetry(telemetry, FtcDashboard.getInstance().getTelemetry());
+
+        ReplayEncoder par0 = new ReplayEncoder(), par1 = new ReplayEncoder(), perp = new ReplayEncoder();
+        double inPerTick = MecanumDrive.PARAMS.inPerTick;
+        ThreeDeadWheelLocalizer localizer = new ThreeDeadWheelLocalizer(par0, par1, perp, inPerTick);
+        LegacyLocalizer legacy = new LegacyLocalizer(par0, par1, perp, inPerTick);
+
+        waitForStart();
+
+        LatencyHistogram before = new LatencyHistogram();
+        LatencyHistogram after = new LatencyHistogram();
+        Pose2d pose = new Pose2d(0, 0, 0);
+        double par0Pos = 0, par1Pos = 0, perpPos = 0;
+        for (int i = 1; i <= WARMUP + ITERATIONS && opModeIsActive(); i++) {
+            // ticks per second
+            double par0Vel = 2000 + 600 * Math.sin(i * 0.004);
+            double par1Vel = 2000 + 600 * Math.cos(i * 0.003);
+            double perpVel = 400 * Math.sin(i * 0.007);
+            par0Pos += par0Vel * DT;
+            par1Pos += par1Vel * DT;
+            perpPos += perpVel * DT;
+            par0.set((int) par0Pos, (int) par0Vel);
+            par1.set((int) par1Pos, (int) par1Vel);
+            perp.set((int) perpPos, (int) perpVel);
+
+            long t0 = System.nanoTime();
+            pose = pose.plus(legacy.update().value());
+            long t1 = System.nanoTime();
+            localizer.integrate();
+            long t2 = System.nanoTime();
+
+            if (i > WARMUP) {
+                before.record(t1 - t0);
+                after.record(t2 - t1);
+            }
+        }
+
+        while (opModeIsActive()) {
+            report("before", before);
+            report("after", after);
+            telemetry.addData("pose", "%.3f %.3f %.2f / %.3f %.3f %.2f",
+                    pose.position.x, pose.position.y, Math.toDegrees(pose.heading.toDouble()),
+                    localizer.x, localizer.y, Math.toDegrees(localizer.heading));
+            telemetry.update();
+            sleep(250);
+        }
+    }
+
+    private void report(String name, LatencyHistogram h) {
+        telemetry.addData(name + " (us)", "p50 %.2f  p99 %.2f  max %.2f",
+                h.getValueAtPercentile(50) * 1e-3, h.getValueAtPercentile(99) * 1e-3, h.getMaxValue() * 1e-3);
+    }
+
+    // ThreeDeadWheelLocalizer.update() as it was before integrate()
+    private static final class LegacyLocalizer {
+        private final Encoder par0, par1, perp;
+        private final double inPerTick;
+        private int lastPar0Pos, lastPar1Pos, lastPerpPos;
+
+        LegacyLocalizer(Encoder par0, Encoder par1, Encoder perp, double inPerTick) {
+            this.par0 = par0;
+            this.par1 = par1;
+            this.perp = perp;
+            this.inPerTick = inPerTick;
+
+            lastPar0Pos = par0.getPositionAndVelocity().position;
+            lastPar1Pos = par1.getPositionAndVelocity().position;
+            lastPerpPos = perp.getPositionAndVelocity().position;
+        }
+
+        Twist2dDual<Time> update() {
+            ThreeDeadWheelLocalizer.Params p = ThreeDeadWheelLocalizer.PARAMS;
+
+            PositionVelocityPair par0PosVel = par0.getPositionAndVelocity();
+            PositionVelocityPair par1PosVel = par1.getPositionAndVelocity();
+            PositionVelocityPair perpPosVel = perp.getPositionAndVelocity();
+
+            int par0PosDelta = par0PosVel.position - lastPar0Pos;
+            int par1PosDelta = par1PosVel.position - lastPar1Pos;
+            int perpPosDelta = perpPosVel.position - lastPerpPos;
+
+            Twist2dDual<Time> twist = new Twist2dDual<>(
+                    new Vector2dDual<>(
+                            new DualNum<Time>(new double[] {
+                                    (p.par0YTicks * par1PosDelta - p.par1YTicks * par0PosDelta) / (p.par0YTicks - p.par1YTicks),
+                                    (p.par0YTicks * par1PosVel.velocity - p.par1YTicks * par0PosVel.velocity) / (p.par0YTicks - p.par1YTicks),
+                            }).times(inPerTick),
+                            new DualNum<Time>(new double[] {
+                                    (p.perpXTicks / (p.par0YTicks - p.par1YTicks) * (par1PosDelta - par0PosDelta) + perpPosDelta),
+                                    (p.perpXTicks / (p.par0YTicks - p.par1YTicks) * (par1PosVel.velocity - par0PosVel.velocity) + perpPosVel.velocity),
+                            }).times(inPerTick)
+                    ),
+                    new DualNum<>(new double[] {
+                            (par0PosDelta - par1PosDelta) / (p.par0YTicks - p.par1YTicks),
+                            (par0PosVel.velocity - par1PosVel.velocity) / (p.par0YTicks - p.par1YTicks),
+                    })
+            );
+
+            lastPar0Pos = par0PosVel.position;
+            lastPar1Pos = par1PosVel.position;
+            lastPerpPos = perpPosVel.position;
+
+            return twist;
+        }
+    }
+}
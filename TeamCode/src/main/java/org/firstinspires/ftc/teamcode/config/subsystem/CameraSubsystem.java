@@ -1,7 +1,18 @@
 package org.firstinspires.ftc.teamcode.config.subsystem;
 
 
+import androidx.annotation.NonNull;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.acmerobotics.roadrunner.Action;
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.ftc.Actions;
+import com.acmerobotics.roadrunner.ftc.FlightRecorder;
 import com.qualcomm.robotcore.hardware.DcMotor;
+import org.firstinspires.ftc.teamcode.config.roadrunner.MecanumDrive;
+import org.firstinspires.ftc.teamcode.config.roadrunner.messages.TagAlignMessage;
+import org.firstinspires.ftc.robotcore.external.Telemetry;
 import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
 import org.firstinspires.ftc.robotcore.external.hardware.camera.controls.ExposureControl;
 import org.firstinspires.ftc.robotcore.external.hardware.camera.controls.GainControl;
@@ -18,8 +29,38 @@ import java.util.concurrent.TimeUnit;
 
 
 
+@Config
 public class CameraSubsystem {
 
+    /* Streaming alignment, see alignToTagAction */
+    public static class AlignParams {
+        // where the camera sits on the robot (inches, robot frame) and which way it looks: centered,
+        // 3.5 in back from the center of the robot, looking out the back (as AprilTagDrive.Params.cameraOffset)
+        public double cameraForward = -3.5;
+        public double cameraLeft = 0;
+        public double cameraHeading = Math.PI;
+
+        // how far out from the tag the camera should end up (inches)
+        public double standoff = 3;
+
+        // power per inch / per radian of error
+        public double axialGain = 0.06;
+        public double lateralGain = 0.08;
+        public double headingGain = 0.8;
+        // static friction feedforward, added while an axis is outside its tolerance
+        public double kStatic = 0.08;
+        public double maxPower = 0.6;
+
+        public double positionTolerance = 0.5; // in
+        public double headingTolerance = Math.toRadians(2);
+
+        // give up if no tag turns up this soon, or if still not aligned this late (seconds)
+        public double acquireTimeout = 0.75;
+        public double timeout = 2.5;
+    }
+
+    public static AlignParams ALIGN = new AlignParams();
+
     /* Motor Intialization */
     private DcMotor leftFrontDrive = null;
     private DcMotor leftBackDrive = null;
@@ -49,6 +90,10 @@ public class CameraSubsystem {
     private int aprilTagDecimation = 3;
     private final HardwareMap hardwareMap;
 
+    /* Time-to-align statistics */
+    public int alignAttempts, alignSuccesses;
+    public double lastAlignTime, totalAlignTime, maxAlignTime;
+
 
     public CameraSubsystem(HardwareMap hardwareMap) {
         leftFrontDrive = hardwareMap.get(DcMotor.class, "lF");
@@ -89,6 +134,10 @@ public class CameraSubsystem {
     }
 
 
+    /**
+     * Blocks for 1.3 s on one detection; use {@link #alignToTagAction} instead.
+     */
+    @Deprecated
     public void alignToTag(int DESIRED_TAG_ID) {
         List<AprilTagDetection> currentDetections = aprilTag.getDetections();
 
@@ -126,6 +175,167 @@ public class CameraSubsystem {
 
     }
 
+    private class AlignToTagAction implements Action {
+        private final MecanumDrive drive;
+        private final int tagId;
+
+        private double beginTs = -1;
+        private AprilTagDetection lastDetection;
+        private Pose2d goal;
+        private int frames;
+        private double lastFrameTs, longestDropout;
+
+        AlignToTagAction(MecanumDrive drive, int tagId) {
+            this.drive = drive;
+            this.tagId = tagId;
+        }
+
+        @Override
+        public boolean run(@NonNull TelemetryPacket p) {
+            double t;
+            if (beginTs < 0) {
+                beginTs = Actions.now();
+                t = 0;
+                targetFound = false;
+            } else {
+                t = Actions.now() - beginTs;
+            }
+
+            drive.updatePoseEstimate();
+            Pose2d pose = drive.pose;
+
+            AprilTagDetection detection = findTag(tagId);
+            // the processor hands out new detection objects every frame
+            if (detection != null && detection != lastDetection) {
+                lastDetection = detection;
+                Pose2d then = detection.frameAcquisitionNanoTime != 0
+                        ? drive.poseHistory.poseAt(detection.frameAcquisitionNanoTime) : null;
+                goal = goalFrom(detection, then != null ? then : pose);
+                if (frames > 0) {
+                    longestDropout = Math.max(longestDropout, t - lastFrameTs);
+                }
+                lastFrameTs = t;
+                frames++;
+                targetFound = true;
+            }
+
+            if (goal == null) {
+                if (t > ALIGN.acquireTimeout) {
+                    finish(t, false, 0, 0, 0);
+                    return false;
+                }
+                drive.setDrivePowers(0, 0, 0);
+                return true;
+            }
+
+            Pose2d error = pose.inverse().times(goal);
+            double ex = error.position.x, ey = error.position.y, eh = error.heading.toDouble();
+            // never close in past the standoff, whatever the goal says; the range comes straight from the camera,
+            // the goal also leans on the camera offsets
+            if (lastDetection.ftcPose.range <= ALIGN.standoff) {
+                double c = Math.cos(ALIGN.cameraHeading), s = Math.sin(ALIGN.cameraHeading);
+                double towardTag = c * ex + s * ey;
+                if (towardTag > 0) {
+                    ex -= towardTag * c;
+                    ey -= towardTag * s;
+                }
+            }
+            boolean aligned = Math.abs(ex) < ALIGN.positionTolerance && Math.abs(ey) < ALIGN.positionTolerance
+                    && Math.abs(eh) < ALIGN.headingTolerance;
+            if (aligned || t > ALIGN.timeout) {
+                finish(t, aligned, ex, ey, eh);
+                return false;
+            }
+
+            drive.setDrivePowers(
+                    command(ex, ALIGN.axialGain, ALIGN.positionTolerance),
+                    command(ey, ALIGN.lateralGain, ALIGN.positionTolerance),
+                    command(eh, ALIGN.headingGain, ALIGN.headingTolerance));
+
+            p.put("align tag", tagId);
+            p.put("align frames", frames);
+            p.put("align frame age (s)", t - lastFrameTs);
+            p.put("align error x", ex);
+            p.put("align error y", ey);
+            p.put("align error heading (deg)", Math.toDegrees(eh));
+            return true;
+        }
+
+        private void finish(double t, boolean aligned, double ex, double ey, double eh) {
+            drive.setDrivePowers(0, 0, 0);
+
+            alignAttempts++;
+            lastAlignTime = t;
+            if (aligned) {
+                alignSuccesses++;
+                totalAlignTime += t;
+                maxAlignTime = Math.max(maxAlignTime, t);
+            }
+            FlightRecorder.write("TAG_ALIGN",
+                    new TagAlignMessage(tagId, aligned, t, frames, longestDropout, ex, ey, eh));
+        }
+    }
+
+    /**
+     * Drives until the camera is {@link AlignParams#standoff} straight out from the tag and square to it,
+     * without blocking the op mode thread.
+     * <p>
+     * Every new frame of the tag re-anchors a field goal pose, using the drive's pose from when the frame
+     * was captured. Between frames, and if the tag drops out, the drive closes on that goal with odometry.
+     * Ends as soon as the error is inside tolerance, or after {@link AlignParams#timeout}; if the tag is never
+     * seen, ends after {@link AlignParams#acquireTimeout} with {@link #targetFound} false. Never drives the
+     * camera closer to the tag than the standoff.
+     */
+    public Action alignToTagAction(MecanumDrive drive, int tagId) {
+        return new AlignToTagAction(drive, tagId);
+    }
+
+    private AprilTagDetection findTag(int id) {
+        for (AprilTagDetection detection : aprilTag.getDetections()) {
+            if (detection.metadata != null && detection.ftcPose != null && (id < 0 || detection.id == id)) {
+                return detection;
+            }
+        }
+        return null;
+    }
+
+    // where the robot should be for the camera to sit the standoff out from the tag, square to it
+    private Pose2d goalFrom(AprilTagDetection detection, Pose2d robot) {
+        // the tag seen from the camera, x forward and y left; yaw turns the tag counterclockwise
+        double yaw = Math.toRadians(detection.ftcPose.yaw);
+        Pose2d cameraGoal = new Pose2d(
+                detection.ftcPose.y - ALIGN.standoff * Math.cos(yaw),
+                -detection.ftcPose.x - ALIGN.standoff * Math.sin(yaw),
+                yaw);
+        Pose2d camera = new Pose2d(ALIGN.cameraForward, ALIGN.cameraLeft, ALIGN.cameraHeading);
+        return robot.times(camera).times(cameraGoal).times(camera.inverse());
+    }
+
+    private static double command(double error, double gain, double tolerance) {
+        double power = gain * error;
+        if (Math.abs(error) > tolerance) {
+            power += Math.copySign(ALIGN.kStatic, error);
+        }
+        return Range.clip(power, -ALIGN.maxPower, ALIGN.maxPower);
+    }
+
+    public void addAlignTelemetry(TelemetryPacket p) {
+        p.put("align attempts", alignAttempts);
+        p.put("align successes", alignSuccesses);
+        p.put("align last (s)", lastAlignTime);
+        p.put("align mean (s)", alignSuccesses == 0 ? 0 : totalAlignTime / alignSuccesses);
+        p.put("align max (s)", maxAlignTime);
+    }
+
+    /**
+     * Driver station version of {@link #addAlignTelemetry(TelemetryPacket)}.
+     */
+    public void addAlignTelemetry(Telemetry telemetry) {
+        telemetry.addData("align", "%d of %d aligned, last %.2f s, mean %.2f s, max %.2f s",
+                alignSuccesses, alignAttempts, lastAlignTime,
+                alignSuccesses == 0 ? 0 : totalAlignTime / alignSuccesses, maxAlignTime);
+    }
+
     public void initAprilTag() {
         // Create the AprilTag processor by using a builder.
         aprilTag = new AprilTagProcessor.Builder().build();
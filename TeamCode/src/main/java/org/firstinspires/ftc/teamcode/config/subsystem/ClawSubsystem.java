@@ -7,6 +7,8 @@ import com.acmerobotics.roadrunner.Action;
 import com.qualcomm.robotcore.hardware.HardwareMap;
 import com.qualcomm.robotcore.hardware.Servo;
 
+import org.firstinspires.ftc.teamcode.config.hardware.CachingHardware;
+
 
 public class ClawSubsystem {
 
@@ -23,9 +25,9 @@ public class ClawSubsystem {
     double whiteScoringClaw = 0.75; //.725
 
     public ClawSubsystem(HardwareMap hardwareMap) {
-        pivot = hardwareMap.get(Servo.class, "pivot");
-        clawL = hardwareMap.get(Servo.class, "clawL");
-        clawR = hardwareMap.get(Servo.class, "clawR");
+        pivot = CachingHardware.servo(hardwareMap, "pivot");
+        clawL = CachingHardware.servo(hardwareMap, "clawL");
+        clawR = CachingHardware.servo(hardwareMap, "clawR");
     }
 
     //------------------------------Close Claws------------------------------//
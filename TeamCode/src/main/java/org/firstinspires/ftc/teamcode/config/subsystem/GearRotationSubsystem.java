@@ -10,16 +10,18 @@ import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import com.qualcomm.robotcore.hardware.HardwareMap;
 import com.qualcomm.robotcore.hardware.Servo;
 
+import org.firstinspires.ftc.teamcode.config.hardware.CachingHardware;
+
 
 public class GearRotationSubsystem {
     private DcMotorEx gear;
     private Servo wheelServo;
 
     public GearRotationSubsystem(HardwareMap hardwareMap) {
-        gear = hardwareMap.get(DcMotorEx.class, "gear");
+        gear = CachingHardware.motor(hardwareMap, "gear");
         gear.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
         gear.setDirection(DcMotorSimple.Direction.REVERSE);
-        wheelServo = hardwareMap.get(Servo.class, "WheelServo");
+        wheelServo = CachingHardware.servo(hardwareMap, "WheelServo");
     }
 
     //------------------------------Ground Position------------------------------//
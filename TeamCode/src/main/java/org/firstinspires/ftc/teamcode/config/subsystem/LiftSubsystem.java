@@ -9,11 +9,13 @@ import com.qualcomm.robotcore.hardware.DcMotorEx;
 import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import com.qualcomm.robotcore.hardware.HardwareMap;
 
+import org.firstinspires.ftc.teamcode.config.hardware.CachingHardware;
+
 public class LiftSubsystem {
     private DcMotorEx lift;
 
     public LiftSubsystem(HardwareMap hardwareMap) {
-        lift = hardwareMap.get(DcMotorEx.class, "lift");
+        lift = CachingHardware.motor(hardwareMap, "lift");
         lift.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
         lift.setDirection(DcMotorSimple.Direction.FORWARD);
     }
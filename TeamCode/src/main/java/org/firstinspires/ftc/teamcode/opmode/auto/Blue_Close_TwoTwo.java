@@ -4,15 +4,18 @@ import com.acmerobotics.roadrunner.ParallelAction;
 import com.acmerobotics.roadrunner.Pose2d;
 import com.acmerobotics.roadrunner.SequentialAction;
 import com.acmerobotics.roadrunner.SleepAction;
-import com.acmerobotics.roadrunner.TrajectoryActionBuilder;
 import com.acmerobotics.roadrunner.Vector2d;
-import com.acmerobotics.roadrunner.ftc.Actions;
 import com.qualcomm.hardware.dfrobot.HuskyLens;
 import com.qualcomm.robotcore.eventloop.opmode.Autonomous;
 import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
 
 import org.firstinspires.ftc.robotcore.internal.system.Deadline;
+import org.firstinspires.ftc.teamcode.config.roadrunner.CompletionPolicy;
+import org.firstinspires.ftc.teamcode.config.roadrunner.MatchStateStore;
 import org.firstinspires.ftc.teamcode.config.roadrunner.MecanumDrive;
+import org.firstinspires.ftc.teamcode.config.roadrunner.TrajectoryCache;
+import org.firstinspires.ftc.teamcode.config.roadrunner.TrajectoryCompiler;
+import org.firstinspires.ftc.teamcode.config.roadrunner.TrajectoryRecipe;
 import org.firstinspires.ftc.teamcode.config.subsystem.*;
 
 import java.util.concurrent.TimeUnit;
@@ -29,6 +32,13 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
         GearRotationSubsystem gear = new GearRotationSubsystem(hardwareMap);
         Pose2d beginPose = new Pose2d(-62, 12, 0);
         MecanumDrive drive = new MecanumDrive(hardwareMap, beginPose);
+        // hold the end of each path until the robot is actually there
+        drive.completionPolicy = CompletionPolicy.settle();
+        // teleop picks up the pose and the lift/gear offsets from here
+        drive.matchState = new MatchStateStore();
+        // built in the background, and only rebuilt when the waypoints or drive constraints change
+        TrajectoryCompiler trajectories = new TrajectoryCompiler(
+                new TrajectoryCache(drive, "Blue_Close_TwoTwo"));
         PresetSubsystem presets = new PresetSubsystem(claw, lift, gear);
         CameraSubsystem camera = new CameraSubsystem(hardwareMap);
         huskyLens = hardwareMap.get(HuskyLens.class, "huskyLens");
@@ -59,67 +69,67 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
         Pose2d parkingPose = new Pose2d(-40.5, 52.75, Math.toRadians(90));
 
         //This action drives to the first tape line
-        TrajectoryActionBuilder purpleTAction1 = drive.actionBuilder(startPose)
+        TrajectoryRecipe purpleTAction1 = new TrajectoryRecipe(startPose)
                 .setTangent(0)
                 .lineToX(-55)
                 .splineTo(new Vector2d(-36, 30), Math.toRadians(270));
-        Action purpleAction1 = purpleTAction1.build();
+        Action purpleAction1 = trajectories.submit("purpleAction1", 1, purpleTAction1);
 
         //This action drives to the second tape line
-        TrajectoryActionBuilder purpleTAction2 = drive.actionBuilder(startPose)
+        TrajectoryRecipe purpleTAction2 = new TrajectoryRecipe(startPose)
                 .setTangent(0)
                 .lineToX(-55)
                 .splineTo(new Vector2d(-30, 22), Math.toRadians(270));
-        Action purpleAction2 = purpleTAction2.build();
+        Action purpleAction2 = trajectories.submit("purpleAction2", 2, purpleTAction2);
 
         //This action drives to the third tape line
-        TrajectoryActionBuilder purpleTAction3 = drive.actionBuilder(startPose)
+        TrajectoryRecipe purpleTAction3 = new TrajectoryRecipe(startPose)
                 .setTangent(0)
                 .lineToX(-55)
                 .splineTo(new Vector2d(-36, 8), Math.toRadians(270));
-        Action purpleAction3 = purpleTAction3.build();
+        Action purpleAction3 = trajectories.submit("purpleAction3", 3, purpleTAction3);
 
         //This action drives to the first backdrop section
-        TrajectoryActionBuilder yellowScoringTAction1 = drive.actionBuilder(yellowScoringPose1)
+        TrajectoryRecipe yellowScoringTAction1 = new TrajectoryRecipe(yellowScoringPose1)
                 .strafeTo(new Vector2d(-42, 45));
-        Action yellowScoringAction1 = yellowScoringTAction1.build();
+        Action yellowScoringAction1 = trajectories.submit("yellowScoringAction1", 1, yellowScoringTAction1);
 
         //This action drives to the second backdrop section
-        TrajectoryActionBuilder yellowScoringTAction2 = drive.actionBuilder(yellowScoringPose2)
+        TrajectoryRecipe yellowScoringTAction2 = new TrajectoryRecipe(yellowScoringPose2)
                 .strafeTo(new Vector2d(-36, 45));
-        Action yellowScoringAction2 = yellowScoringTAction2.build();
+        Action yellowScoringAction2 = trajectories.submit("yellowScoringAction2", 2, yellowScoringTAction2);
 
         //This action drives to the third backdrop section
-        TrajectoryActionBuilder yellowScoringTAction3 = drive.actionBuilder(yellowScoringPose3)
+        TrajectoryRecipe yellowScoringTAction3 = new TrajectoryRecipe(yellowScoringPose3)
                 .strafeTo(new Vector2d(-36,15))
         .strafeToConstantHeading(new Vector2d(-27, 45));
-        Action yellowScoringAction3 = yellowScoringTAction3.build();
+        Action yellowScoringAction3 = trajectories.submit("yellowScoringAction3", 3, yellowScoringTAction3);
 
         //This action OVERRIDES camera and drives to the first backdrop section
-        TrajectoryActionBuilder yellowScoringOverrideTAction1 = drive.actionBuilder(yellowScoringOverridePose1)
+        TrajectoryRecipe yellowScoringOverrideTAction1 = new TrajectoryRecipe(yellowScoringOverridePose1)
                 .strafeTo(new Vector2d(-42, 51.5));
-        Action yellowScoringOverrideAction1 = yellowScoringOverrideTAction1.build();
+        Action yellowScoringOverrideAction1 = trajectories.submit("yellowScoringOverrideAction1", 1, yellowScoringOverrideTAction1);
 
         //This action OVERRIDES camera and drives to the second backdrop section
-        TrajectoryActionBuilder yellowScoringOverrideTAction2 = drive.actionBuilder(yellowScoringOverridePose2)
+        TrajectoryRecipe yellowScoringOverrideTAction2 = new TrajectoryRecipe(yellowScoringOverridePose2)
                 .strafeTo(new Vector2d(-36, 51.5));
-        Action yellowScoringOverrideAction2 = yellowScoringOverrideTAction2.build();
+        Action yellowScoringOverrideAction2 = trajectories.submit("yellowScoringOverrideAction2", 2, yellowScoringOverrideTAction2);
 
         //This action OVERRIDES camera and drives to the third backdrop section
-        TrajectoryActionBuilder yellowScoringOverrideTAction3 = drive.actionBuilder(yellowScoringOverridePose3)
+        TrajectoryRecipe yellowScoringOverrideTAction3 = new TrajectoryRecipe(yellowScoringOverridePose3)
                 .strafeTo(new Vector2d(-27, 51.5));
-        Action yellowScoringOverrideAction3 = yellowScoringOverrideTAction3.build();
+        Action yellowScoringOverrideAction3 = trajectories.submit("yellowScoringOverrideAction3", 3, yellowScoringOverrideTAction3);
 
         //This action drives to robot to the white pixel stack
-        TrajectoryActionBuilder driveToWhiteTAction1 = drive.actionBuilder(driveToWhitePose1)
+        TrajectoryRecipe driveToWhiteTAction1 = new TrajectoryRecipe(driveToWhitePose1)
                 .strafeToConstantHeading(new Vector2d(-42,47))
                 .strafeToConstantHeading(new Vector2d(-60.5, 36))
                 .strafeToConstantHeading(new Vector2d(-60.5,-36))
                 .strafeToConstantHeading(new Vector2d(-35.5,-37));
-        Action driveToWhiteAction1 = driveToWhiteTAction1.build();
+        Action driveToWhiteAction1 = trajectories.submit("driveToWhiteAction1", 1, driveToWhiteTAction1);
 
         //This action drives to robot to the white pixel stack
-        TrajectoryActionBuilder driveToWhiteTAction2 = drive.actionBuilder(driveToWhitePose2)
+        TrajectoryRecipe driveToWhiteTAction2 = new TrajectoryRecipe(driveToWhitePose2)
                 .strafeToConstantHeading(new Vector2d(-36,47))
                 .strafeToConstantHeading(new Vector2d(-60.5, 36))
                 .strafeToConstantHeading(new Vector2d(-60.5,-36))
@@ -128,10 +138,10 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
                 .strafeToLinearHeading(new Vector2d(-63, 36), Math.toRadians(267))//267
                 .strafeToConstantHeading(new Vector2d(-63,-36))
                 .strafeToLinearHeading((new Vector2d(-35,-36.5)), Math.toRadians(270));*/
-        Action driveToWhiteAction2 = driveToWhiteTAction2.build();
+        Action driveToWhiteAction2 = trajectories.submit("driveToWhiteAction2", 2, driveToWhiteTAction2);
 
         //This action drives to robot to the white pixel stack
-        TrajectoryActionBuilder driveToWhiteTAction3 = drive.actionBuilder(driveToWhitePose3)
+        TrajectoryRecipe driveToWhiteTAction3 = new TrajectoryRecipe(driveToWhitePose3)
                 .strafeToConstantHeading(new Vector2d(-28,47))
                 .strafeToConstantHeading(new Vector2d(-60.5, 36))
                 .strafeToConstantHeading(new Vector2d(-60.5,-36))
@@ -140,27 +150,30 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
                 .strafeToLinearHeading(new Vector2d(-63, 36), Math.toRadians(267))
                 .strafeToConstantHeading(new Vector2d(-63,-36))
                 .strafeToLinearHeading(new Vector2d(-35,-36.5), Math.toRadians(270));*/
-        Action driveToWhiteAction3 = driveToWhiteTAction3.build();
+        Action driveToWhiteAction3 = trajectories.submit("driveToWhiteAction3", 3, driveToWhiteTAction3);
 
         //This action drives to robot to the white pixel stack
-        TrajectoryActionBuilder whiteTrussTAction = drive.actionBuilder(whiteTrussPose)
+        TrajectoryRecipe whiteTrussTAction = new TrajectoryRecipe(whiteTrussPose)
                 .strafeToConstantHeading(new Vector2d(-60.5,-36))
                 .strafeToConstantHeading(new Vector2d(-60.5,-12))
                 .strafeToConstantHeading(new Vector2d(-60.5, 12))
                 .strafeToConstantHeading(new Vector2d(-60,24));
-        Action whiteTrussAction = whiteTrussTAction.build();
+        Action whiteTrussAction = trajectories.submit("whiteTrussAction", whiteTrussTAction);
 
-        TrajectoryActionBuilder whiteScoringTAction = drive.actionBuilder(whiteScoringPose)
+        TrajectoryRecipe whiteScoringTAction = new TrajectoryRecipe(whiteScoringPose)
                 .splineTo(new Vector2d(-40.5, 52.75), Math.toRadians(90));
-        Action whiteScoringAction = whiteScoringTAction.build();
+        Action whiteScoringAction = trajectories.submit("whiteScoringAction", whiteScoringTAction);
 
         //This action drives to robot to the parking zone
-        TrajectoryActionBuilder parkingTAction = drive.actionBuilder(parkingPose)
+        TrajectoryRecipe parkingTAction = new TrajectoryRecipe(parkingPose)
                 .strafeToConstantHeading(new Vector2d(-38,40))
         .strafeToConstantHeading((new Vector2d(-62, 50)));
-        Action parkingAction = parkingTAction.build();
+        Action parkingAction = trajectories.submit("parkingAction", parkingTAction);
 
 
+        trajectories.finish();
+        trajectories.addTelemetry(telemetry);
+
         //Huskylens Setup
         Deadline rateLimit = new Deadline(1, TimeUnit.SECONDS);
         rateLimit.expire();
@@ -177,8 +190,21 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
         telemetry.addData("Camera preview on/off", "3 dots, Camera Stream");
         telemetry.addData(">", "Touch Play to start OpMode");
         telemetry.update();
-        waitForStart();
 
+        // only the branch the camera currently sees is compiled while waiting
+        while (opModeInInit()) {
+            int branch = likelyBranch(huskyLens.blocks());
+            if (branch != TrajectoryCompiler.NO_BRANCH) {
+                trajectories.select(branch);
+            }
+            trajectories.addTelemetry(telemetry);
+            telemetry.addData(">", "Touch Play to start OpMode");
+            telemetry.update();
+            sleep(100);
+        }
+
+        // keep odometry going through the camera alignment and HuskyLens reads
+        drive.startOdometryService();
 
         while (opModeIsActive()) {
 
@@ -195,7 +221,7 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
                 //----------------------------1----------------------------\\
                 if (blocks[i].x < 100 && blocks[i].id == 2 && blocks[i].y < 200) {
 
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new ParallelAction(
                                             presets.StartPos(),
@@ -214,15 +240,17 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
                             )
                     );
 
-                    camera.alignToTag(1);
+                    drive.bulkReads.runBlocking(camera.alignToTagAction(drive, 1));
+                    camera.addAlignTelemetry(telemetry);
+                    telemetry.update();
 
                     if(!camera.targetFound){
-                        Actions.runBlocking(
+                        drive.bulkReads.runBlocking(
                                 yellowScoringOverrideAction1
                         );
                     }
 
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new SleepAction(.1),
                                     claw.openRClaw(),
@@ -260,7 +288,7 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
 
                 //----------------------------2----------------------------\\
                 if (blocks[i].x > 100 && blocks[i].x < 200 && blocks[i].id == 2 && blocks[i].y < 200) {
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new ParallelAction(
                                             presets.StartPos(),
@@ -279,15 +307,17 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
                             )
                     );
 
-                    camera.alignToTag(2);
+                    drive.bulkReads.runBlocking(camera.alignToTagAction(drive, 2));
+                    camera.addAlignTelemetry(telemetry);
+                    telemetry.update();
 
                     if(!camera.targetFound){
-                        Actions.runBlocking(
+                        drive.bulkReads.runBlocking(
                                 yellowScoringOverrideAction2
                         );
                     }
 
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new SleepAction(.1),
                                     claw.openRClaw(),
@@ -325,7 +355,7 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
 
                 //----------------------------3---------------------------\\
                 if (blocks[i].x > 210 && blocks[i].id == 2 && blocks[i].y < 200) {
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new ParallelAction(
                                             presets.StartPos(),
@@ -344,15 +374,17 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
                             )
                     );
 
-                    camera.alignToTag(3);
+                    drive.bulkReads.runBlocking(camera.alignToTagAction(drive, 3));
+                    camera.addAlignTelemetry(telemetry);
+                    telemetry.update();
 
                     if(!camera.targetFound){
-                        Actions.runBlocking(
+                        drive.bulkReads.runBlocking(
                                 yellowScoringOverrideAction3
                         );
                     }
 
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new SleepAction(.1),
                                     claw.openRClaw(),
@@ -391,6 +423,22 @@ public class Blue_Close_TwoTwo extends LinearOpMode {
 
     }
 
-
+    // same tests as the branches above, NO_BRANCH if no prop is visible
+    private int likelyBranch(HuskyLens.Block[] blocks) {
+        for (HuskyLens.Block block : blocks) {
+            if (block.id != 2 || block.y >= 200) {
+                continue;
+            }
+            if (block.x < 100) {
+                return 1;
+            }
+            if (block.x > 100 && block.x < 200) {
+                return 2;
+            }
+            if (block.x > 210) {
+                return 3;
+            }
+        }
+        return TrajectoryCompiler.NO_BRANCH;
+    }
 }
-
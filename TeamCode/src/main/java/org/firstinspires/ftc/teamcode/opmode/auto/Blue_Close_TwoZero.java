@@ -4,15 +4,18 @@ import com.acmerobotics.roadrunner.ParallelAction;
 import com.acmerobotics.roadrunner.Pose2d;
 import com.acmerobotics.roadrunner.SequentialAction;
 import com.acmerobotics.roadrunner.SleepAction;
-import com.acmerobotics.roadrunner.TrajectoryActionBuilder;
 import com.acmerobotics.roadrunner.Vector2d;
-import com.acmerobotics.roadrunner.ftc.Actions;
 import com.qualcomm.hardware.dfrobot.HuskyLens;
 import com.qualcomm.robotcore.eventloop.opmode.Autonomous;
 import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
 
 import org.firstinspires.ftc.robotcore.internal.system.Deadline;
+import org.firstinspires.ftc.teamcode.config.roadrunner.CompletionPolicy;
+import org.firstinspires.ftc.teamcode.config.roadrunner.MatchStateStore;
 import org.firstinspires.ftc.teamcode.config.roadrunner.MecanumDrive;
+import org.firstinspires.ftc.teamcode.config.roadrunner.TrajectoryCache;
+import org.firstinspires.ftc.teamcode.config.roadrunner.TrajectoryCompiler;
+import org.firstinspires.ftc.teamcode.config.roadrunner.TrajectoryRecipe;
 import org.firstinspires.ftc.teamcode.config.subsystem.*;
 
 import java.util.concurrent.TimeUnit;
@@ -29,6 +32,13 @@ public class Blue_Close_TwoZero extends LinearOpMode {
         GearRotationSubsystem gear = new GearRotationSubsystem(hardwareMap);
         Pose2d beginPose = new Pose2d(-62, 12, 0);
         MecanumDrive drive = new MecanumDrive(hardwareMap, beginPose);
+        // hold the end of each path until the robot is actually there
+        drive.completionPolicy = CompletionPolicy.settle();
+        // teleop picks up the pose and the lift/gear offsets from here
+        drive.matchState = new MatchStateStore();
+        // built in the background, and only rebuilt when the waypoints or drive constraints change
+        TrajectoryCompiler trajectories = new TrajectoryCompiler(
+                new TrajectoryCache(drive, "Blue_Close_TwoZero"));
         PresetSubsystem presets = new PresetSubsystem(claw, lift, gear);
         CameraSubsystem camera = new CameraSubsystem(hardwareMap);
         huskyLens = hardwareMap.get(HuskyLens.class, "huskyLens");
@@ -57,74 +67,77 @@ public class Blue_Close_TwoZero extends LinearOpMode {
 
 
         //This action drives to the first tape line
-        TrajectoryActionBuilder purpleTAction1 = drive.actionBuilder(startPose)
+        TrajectoryRecipe purpleTAction1 = new TrajectoryRecipe(startPose)
                 .setTangent(0)
                 .lineToX(-55)
                 .splineTo(new Vector2d(-36, 30), Math.toRadians(270));
-        Action purpleAction1 = purpleTAction1.build();
+        Action purpleAction1 = trajectories.submit("purpleAction1", 1, purpleTAction1);
 
         //This action drives to the second tape line
-        TrajectoryActionBuilder purpleTAction2 = drive.actionBuilder(startPose)
+        TrajectoryRecipe purpleTAction2 = new TrajectoryRecipe(startPose)
                 .setTangent(0)
                 .lineToX(-55)
                 .splineTo(new Vector2d(-30, 22), Math.toRadians(270));
-        Action purpleAction2 = purpleTAction2.build();
+        Action purpleAction2 = trajectories.submit("purpleAction2", 2, purpleTAction2);
 
         //This action drives to the third tape line
-        TrajectoryActionBuilder purpleTAction3 = drive.actionBuilder(startPose)
+        TrajectoryRecipe purpleTAction3 = new TrajectoryRecipe(startPose)
                 .setTangent(0)
                 .lineToX(-55)
                 .splineTo(new Vector2d(-36, 8), Math.toRadians(270));
-        Action purpleAction3 = purpleTAction3.build();
+        Action purpleAction3 = trajectories.submit("purpleAction3", 3, purpleTAction3);
 
         //This action drives to the first backdrop section
-        TrajectoryActionBuilder yellowScoringTAction1 = drive.actionBuilder(yellowScoringPose1)
+        TrajectoryRecipe yellowScoringTAction1 = new TrajectoryRecipe(yellowScoringPose1)
                 .strafeTo(new Vector2d(-42, 45));
-        Action yellowScoringAction1 = yellowScoringTAction1.build();
+        Action yellowScoringAction1 = trajectories.submit("yellowScoringAction1", 1, yellowScoringTAction1);
 
         //This action drives to the second backdrop section
-        TrajectoryActionBuilder yellowScoringTAction2 = drive.actionBuilder(yellowScoringPose2)
+        TrajectoryRecipe yellowScoringTAction2 = new TrajectoryRecipe(yellowScoringPose2)
                 .strafeTo(new Vector2d(-36, 45));
-        Action yellowScoringAction2 = yellowScoringTAction2.build();
+        Action yellowScoringAction2 = trajectories.submit("yellowScoringAction2", 2, yellowScoringTAction2);
 
         //This action drives to the third backdrop section
-        TrajectoryActionBuilder yellowScoringTAction3 = drive.actionBuilder(yellowScoringPose3)
+        TrajectoryRecipe yellowScoringTAction3 = new TrajectoryRecipe(yellowScoringPose3)
                 .strafeTo(new Vector2d(-36,15))
                 .strafeTo(new Vector2d(-27, 45));
-        Action yellowScoringAction3 = yellowScoringTAction3.build();
+        Action yellowScoringAction3 = trajectories.submit("yellowScoringAction3", 3, yellowScoringTAction3);
 
         //This action OVERRIDES camera and drives to the first backdrop section
-        TrajectoryActionBuilder yellowScoringOverrideTAction1 = drive.actionBuilder(yellowScoringOverridePose1)
+        TrajectoryRecipe yellowScoringOverrideTAction1 = new TrajectoryRecipe(yellowScoringOverridePose1)
                 .strafeTo(new Vector2d(-42, 51.5));
-        Action yellowScoringOverrideAction1 = yellowScoringOverrideTAction1.build();
+        Action yellowScoringOverrideAction1 = trajectories.submit("yellowScoringOverrideAction1", 1, yellowScoringOverrideTAction1);
 
         //This action OVERRIDES camera and drives to the second backdrop section
-        TrajectoryActionBuilder yellowScoringOverrideTAction2 = drive.actionBuilder(yellowScoringOverridePose2)
+        TrajectoryRecipe yellowScoringOverrideTAction2 = new TrajectoryRecipe(yellowScoringOverridePose2)
                 .strafeTo(new Vector2d(-36, 51.5));
-        Action yellowScoringOverrideAction2 = yellowScoringOverrideTAction2.build();
+        Action yellowScoringOverrideAction2 = trajectories.submit("yellowScoringOverrideAction2", 2, yellowScoringOverrideTAction2);
 
         //This action OVERRIDES camera and drives to the third backdrop section
-        TrajectoryActionBuilder yellowScoringOverrideTAction3 = drive.actionBuilder(yellowScoringOverridePose3)
+        TrajectoryRecipe yellowScoringOverrideTAction3 = new TrajectoryRecipe(yellowScoringOverridePose3)
                 .strafeTo(new Vector2d(-27, 51.5));
-        Action yellowScoringOverrideAction3 = yellowScoringOverrideTAction3.build();
+        Action yellowScoringOverrideAction3 = trajectories.submit("yellowScoringOverrideAction3", 3, yellowScoringOverrideTAction3);
 
         //This action drives to robot to the first parking zone
-        TrajectoryActionBuilder parkingTAction1 = drive.actionBuilder(parkingPose1)
+        TrajectoryRecipe parkingTAction1 = new TrajectoryRecipe(parkingPose1)
                 .strafeTo(new Vector2d(-42,43))
                 .strafeTo((new Vector2d(-62, 50)));
-        Action parkingAction1 = parkingTAction1.build();
+        Action parkingAction1 = trajectories.submit("parkingAction1", 1, parkingTAction1);
 
         //This action drives to robot to the second parking zone
-        TrajectoryActionBuilder parkingTAction2 = drive.actionBuilder(parkingPose2)
+        TrajectoryRecipe parkingTAction2 = new TrajectoryRecipe(parkingPose2)
                 .strafeTo(new Vector2d(-36,43))
                 .strafeTo((new Vector2d(-62, 50)));
-        Action parkingAction2 = parkingTAction2.build();
+        Action parkingAction2 = trajectories.submit("parkingAction2", 2, parkingTAction2);
 
         //This action drives to robot to the third parking zone
-        TrajectoryActionBuilder parkingTAction3 = drive.actionBuilder(parkingPose3)
+        TrajectoryRecipe parkingTAction3 = new TrajectoryRecipe(parkingPose3)
                 .strafeTo(new Vector2d(-27,43))
                 .strafeTo((new Vector2d(-62, 50)));
-        Action parkingAction3 = parkingTAction3.build();
+        Action parkingAction3 = trajectories.submit("parkingAction3", 3, parkingTAction3);
+
+        trajectories.finish();
+        trajectories.addTelemetry(telemetry);
 
         //Huskylens Setup
        Deadline rateLimit = new Deadline(1, TimeUnit.SECONDS);
@@ -141,8 +154,21 @@ public class Blue_Close_TwoZero extends LinearOpMode {
        telemetry.addData("Camera preview on/off", "3 dots, Camera Stream");
        telemetry.addData(">", "Touch Play to start OpMode");
        telemetry.update();
-        waitForStart();
 
+        // only the branch the camera currently sees is compiled while waiting
+        while (opModeInInit()) {
+            int branch = likelyBranch(huskyLens.blocks());
+            if (branch != TrajectoryCompiler.NO_BRANCH) {
+                trajectories.select(branch);
+            }
+            trajectories.addTelemetry(telemetry);
+            telemetry.addData(">", "Touch Play to start OpMode");
+            telemetry.update();
+            sleep(100);
+        }
+
+        // keep odometry going through the camera alignment and HuskyLens reads
+        drive.startOdometryService();
 
         while (opModeIsActive()) {
 
@@ -159,7 +185,7 @@ public class Blue_Close_TwoZero extends LinearOpMode {
                 //----------------------------1----------------------------\\
                 if (blocks[i].x < 100 && blocks[i].id == 2 && blocks[i].y < 200) {
 
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new ParallelAction(
                                             presets.StartPos(),
@@ -178,15 +204,17 @@ public class Blue_Close_TwoZero extends LinearOpMode {
                             )
                     );
 
-                    camera.alignToTag(1);
+                    drive.bulkReads.runBlocking(camera.alignToTagAction(drive, 1));
+                    camera.addAlignTelemetry(telemetry);
+                    telemetry.update();
 
                     if(!camera.targetFound){
-                        Actions.runBlocking(
+                        drive.bulkReads.runBlocking(
                                 yellowScoringOverrideAction1
                         );
                     }
 
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new SleepAction(.1),
                                     claw.openRClaw(),
@@ -203,7 +231,7 @@ public class Blue_Close_TwoZero extends LinearOpMode {
 
                 //----------------------------2----------------------------\\
                 if (blocks[i].x > 100 && blocks[i].x < 200 && blocks[i].id == 2 && blocks[i].y < 200) {
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new ParallelAction(
                                             presets.StartPos(),
@@ -222,15 +250,17 @@ public class Blue_Close_TwoZero extends LinearOpMode {
                             )
                     );
 
-                    camera.alignToTag(2);
+                    drive.bulkReads.runBlocking(camera.alignToTagAction(drive, 2));
+                    camera.addAlignTelemetry(telemetry);
+                    telemetry.update();
 
                     if(!camera.targetFound){
-                        Actions.runBlocking(
+                        drive.bulkReads.runBlocking(
                                 yellowScoringOverrideAction2
                         );
                     }
 
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new SleepAction(.1),
                                     claw.openRClaw(),
@@ -247,7 +277,7 @@ public class Blue_Close_TwoZero extends LinearOpMode {
 
                 //----------------------------3---------------------------\\
                 if (blocks[i].x > 210 && blocks[i].id == 2 && blocks[i].y < 200) {
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new ParallelAction(
                                             presets.StartPos(),
@@ -266,15 +296,17 @@ public class Blue_Close_TwoZero extends LinearOpMode {
                             )
                     );
 
-                    camera.alignToTag(3);
+                    drive.bulkReads.runBlocking(camera.alignToTagAction(drive, 3));
+                    camera.addAlignTelemetry(telemetry);
+                    telemetry.update();
 
                     if(!camera.targetFound){
-                        Actions.runBlocking(
+                        drive.bulkReads.runBlocking(
                                 yellowScoringOverrideAction3
                         );
                     }
 
-                    Actions.runBlocking(
+                    drive.bulkReads.runBlocking(
                             new SequentialAction(
                                     new SleepAction(.1),
                                     claw.openRClaw(),
@@ -292,6 +324,22 @@ public class Blue_Close_TwoZero extends LinearOpMode {
 
     }
 
-
+    // same tests as the branches above, NO_BRANCH if no prop is visible
+    private int likelyBranch(HuskyLens.Block[] blocks) {
+        for (HuskyLens.Block block : blocks) {
+            if (block.id != 2 || block.y >= 200) {
+                continue;
+            }
+            if (block.x < 100) {
+                return 1;
+            }
+            if (block.x > 100 && block.x < 200) {
+                return 2;
+            }
+            if (block.x > 210) {
+                return 3;
+            }
+        }
+        return TrajectoryCompiler.NO_BRANCH;
+    }
 }
-
@@ -6,6 +6,9 @@ import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.Servo;
 import com.qualcomm.robotcore.util.ElapsedTime;
 
+import org.firstinspires.ftc.teamcode.config.hardware.CachingHardware;
+import org.firstinspires.ftc.teamcode.config.roadrunner.MatchStateStore;
+
 @TeleOp(name="Drive")
 public class Drive extends LinearOpMode {
 
@@ -22,19 +25,25 @@ public class Drive extends LinearOpMode {
     private Servo droneServo  = null; //es5
     private Servo WheelServo  = null; //es4
 
+    // where auto left the lift and gear, relative to where it zeroed them; the encoders are zeroed again here
+    private int liftOffset, gearOffset;
+    private MatchStateStore matchState;
+    private final MatchStateStore.State handOff = new MatchStateStore.State();
+    private final ElapsedTime handOffTimer = new ElapsedTime();
+
     @Override
     public void runOpMode() {
-        lF = hardwareMap.get(DcMotor.class, "lF");
-        rF = hardwareMap.get(DcMotor.class, "rF");
-        lB = hardwareMap.get(DcMotor.class, "lB");
-        rB = hardwareMap.get(DcMotor.class, "rB");
-        lift = hardwareMap.get(DcMotor.class, "lift");
-        gear = hardwareMap.get(DcMotor.class, "gear");
-        pivot = hardwareMap.get(Servo.class, "pivot");
-        clawL = hardwareMap.get(Servo.class, "clawL");
-        clawR = hardwareMap.get(Servo.class, "clawR");
-        droneServo = hardwareMap.get(Servo.class, "droneServo");
-        WheelServo = hardwareMap.get(Servo.class, "WheelServo");
+        lF = CachingHardware.motor(hardwareMap, "lF");
+        rF = CachingHardware.motor(hardwareMap, "rF");
+        lB = CachingHardware.motor(hardwareMap, "lB");
+        rB = CachingHardware.motor(hardwareMap, "rB");
+        lift = CachingHardware.motor(hardwareMap, "lift");
+        gear = CachingHardware.motor(hardwareMap, "gear");
+        pivot = CachingHardware.servo(hardwareMap, "pivot");
+        clawL = CachingHardware.servo(hardwareMap, "clawL");
+        clawR = CachingHardware.servo(hardwareMap, "clawR");
+        droneServo = CachingHardware.servo(hardwareMap, "droneServo");
+        WheelServo = CachingHardware.servo(hardwareMap, "WheelServo");
         WheelServo.setPosition(0.85);
         droneServo.setPosition(0.6);
         lF.setDirection(DcMotor.Direction.REVERSE);
@@ -53,6 +62,13 @@ public class Drive extends LinearOpMode {
         clawL.setPosition(.45);
         clawR.setPosition(.25);
 
+        matchState = new MatchStateStore();
+        if (matchState.read(handOff)) {
+            liftOffset = handOff.liftTicks;
+            gearOffset = handOff.gearTicks;
+            telemetry.addData("Hand-off", "lift %d, gear %d", liftOffset, gearOffset);
+        }
+
         telemetry.addData("Status", "Initialized");
         telemetry.update();
         waitForStart();
@@ -202,7 +218,9 @@ public class Drive extends LinearOpMode {
 
 
             if (gamepad1.x) {gear.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
-                lift.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER); }
+                lift.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
+                liftOffset = 0;
+                gearOffset = 0; }
 
 
             /**lift encoder should never be above 2800
@@ -270,6 +288,14 @@ public class Drive extends LinearOpMode {
             telemetry.addData("clawL position", clawL.getPosition());
             telemetry.addData("clawR position", clawR.getPosition());
             telemetry.addData("droneServo position", droneServo.getPosition());*/
+            // keep the hand-off current so a restart or another init still knows where things are
+            if (handOffTimer.seconds() > 0.25) {
+                handOffTimer.reset();
+                handOff.liftTicks = lift.getCurrentPosition() + liftOffset;
+                handOff.gearTicks = gear.getCurrentPosition() + gearOffset;
+                matchState.write(handOff);
+            }
+            CachingHardware.addTelemetry(telemetry);
             telemetry.update();
 
 
@@ -277,8 +303,8 @@ public class Drive extends LinearOpMode {
 
     }
 
-    public void raegPosition (int h, double H) {gear.setTargetPosition(h); gear.setPower(H); }
-    public void tfilPosition (int e, double E) {lift.setTargetPosition(e); lift.setPower(E); }
+    public void raegPosition (int h, double H) {gear.setTargetPosition(h - gearOffset); gear.setPower(H); }
+    public void tfilPosition (int e, double E) {lift.setTargetPosition(e - liftOffset); lift.setPower(E); }
 
     public void raeg (int s) {
         gear.setPower(0.425);
@@ -309,8 +335,8 @@ public class Drive extends LinearOpMode {
     public void fasttfil (int s) {
         lift.setPower(1);
         lift.setTargetPosition(lift.getCurrentPosition() + 250 * s);
-        if (lift.getTargetPosition() > 2500) {
-            lift.setTargetPosition(2500); }
+        if (lift.getTargetPosition() > 2500 - liftOffset) {
+            lift.setTargetPosition(2500 - liftOffset); }
     }
     //public void Tilt (double p) {pivot.setPosition(pivot.getPosition() + p); }
 }
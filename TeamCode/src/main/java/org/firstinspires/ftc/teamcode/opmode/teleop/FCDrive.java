@@ -7,7 +7,9 @@ import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.IMU;
 import com.qualcomm.robotcore.hardware.Servo;
 import com.qualcomm.robotcore.util.ElapsedTime;
-import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.teamcode.config.hardware.CachingHardware;
+import org.firstinspires.ftc.teamcode.config.roadrunner.ImuSampler;
+import org.firstinspires.ftc.teamcode.config.roadrunner.MatchStateStore;
 
 @TeleOp(name="FCDrive")
 public class FCDrive extends LinearOpMode {
@@ -26,18 +28,24 @@ public class FCDrive extends LinearOpMode {
 
     private Servo droneServo  = null; //es5
 
+    // where auto left the lift and gear, relative to where it zeroed them; the encoders are zeroed again here
+    private int liftOffset, gearOffset;
+    private MatchStateStore matchState;
+    private final MatchStateStore.State handOff = new MatchStateStore.State();
+    private final ElapsedTime handOffTimer = new ElapsedTime();
+
     @Override
     public void runOpMode() {
-        lF = hardwareMap.get(DcMotor.class, "lF");
-        rF = hardwareMap.get(DcMotor.class, "rF");
-        lB = hardwareMap.get(DcMotor.class, "lB");
-        rB = hardwareMap.get(DcMotor.class, "rB");
-        lift = hardwareMap.get(DcMotor.class, "lift");
-        gear = hardwareMap.get(DcMotor.class, "gear");
-        pivot = hardwareMap.get(Servo.class, "pivot");
-        clawL = hardwareMap.get(Servo.class, "clawL");
-        clawR = hardwareMap.get(Servo.class, "clawR");
-        droneServo = hardwareMap.get(Servo.class, "droneServo");
+        lF = CachingHardware.motor(hardwareMap, "lF");
+        rF = CachingHardware.motor(hardwareMap, "rF");
+        lB = CachingHardware.motor(hardwareMap, "lB");
+        rB = CachingHardware.motor(hardwareMap, "rB");
+        lift = CachingHardware.motor(hardwareMap, "lift");
+        gear = CachingHardware.motor(hardwareMap, "gear");
+        pivot = CachingHardware.servo(hardwareMap, "pivot");
+        clawL = CachingHardware.servo(hardwareMap, "clawL");
+        clawR = CachingHardware.servo(hardwareMap, "clawR");
+        droneServo = CachingHardware.servo(hardwareMap, "droneServo");
         clawL.setPosition(.45);
         clawR.setPosition(.25);
         //pivot.setPosition(0);
@@ -66,6 +74,15 @@ public class FCDrive extends LinearOpMode {
         clawR.setPosition(.25);
 
 
+        matchState = new MatchStateStore();
+        if (matchState.read(handOff)) {
+            liftOffset = handOff.liftTicks;
+            gearOffset = handOff.gearTicks;
+            telemetry.addData("Hand-off", "lift %d, gear %d", liftOffset, gearOffset);
+        }
+        // this op mode keeps the heading current (below), the other teleops don't
+        handOff.headingTracked = true;
+
         telemetry.addData("Status", "Initialized");
         telemetry.update();
         waitForStart();
@@ -105,6 +122,13 @@ public class FCDrive extends LinearOpMode {
                     RevHubOrientationOnRobot.UsbFacingDirection.UP));   //FORWARD
             // Without this, the REV Hub's orientation is assumed to be logo up / USB forward
             imu.initialize(parameters);
+            // the orientation read is a slow I2C transaction, so it happens off the loop
+            ImuSampler imuSampler = new ImuSampler(imu);
+            imuSampler.start();
+            if (handOff.hasHeading()) {
+                // field centric from where the drivers stood in auto, not from however the robot ended up
+                imuSampler.setHeading(handOff.getDriverHeading());
+            }
 
             waitForStart();
 
@@ -119,10 +143,10 @@ public class FCDrive extends LinearOpMode {
                 // it can be freely changed based on preference.
                 // The equivalent button is start on Xbox-style controllers.
                 if (gamepad1.y) {
-                    imu.resetYaw();
+                    imuSampler.resetYaw();
                 }
 
-                double botHeading = imu.getRobotYawPitchRollAngles().getYaw(AngleUnit.RADIANS);
+                double botHeading = imuSampler.getHeading();
 
                 // Rotate the movement direction counter to the bot's rotation
                 double rotX = x * Math.cos(-botHeading) - y * Math.sin(-botHeading);
@@ -247,7 +271,9 @@ public class FCDrive extends LinearOpMode {
 
 
                 if (gamepad1.x) {gear.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
-                    lift.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER); }
+                    lift.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
+                    liftOffset = 0;
+                    gearOffset = 0; }
 
 
                 /**lift encoder should never be above 2800
@@ -311,13 +337,22 @@ public class FCDrive extends LinearOpMode {
             telemetry.addData("clawL position", clawL.getPosition());
             telemetry.addData("clawR position", clawR.getPosition());
             telemetry.addData("droneServo position", droneServo.getPosition());*/
+                // keep the hand-off current so a restart or another init still knows where things are
+                if (handOffTimer.seconds() > 0.25) {
+                    handOffTimer.reset();
+                    handOff.liftTicks = lift.getCurrentPosition() + liftOffset;
+                    handOff.gearTicks = gear.getCurrentPosition() + gearOffset;
+                    handOff.heading = handOff.startHeading + botHeading;
+                    matchState.write(handOff);
+                }
+                CachingHardware.addTelemetry(telemetry);
                 telemetry.update();
             }
         }
     }
 
-    public void raegPosition (int h, double H) {gear.setTargetPosition(h); gear.setPower(H); }
-    public void tfilPosition (int e, double E) {lift.setTargetPosition(e); lift.setPower(E); }
+    public void raegPosition (int h, double H) {gear.setTargetPosition(h - gearOffset); gear.setPower(H); }
+    public void tfilPosition (int e, double E) {lift.setTargetPosition(e - liftOffset); lift.setPower(E); }
 
     public void raeg (int s) {
         gear.setPower(0.333);
@@ -334,8 +369,8 @@ public class FCDrive extends LinearOpMode {
     public void fasttfil (int s) {
         lift.setPower(1);
         lift.setTargetPosition(lift.getCurrentPosition() + 250 * s);
-        if (lift.getTargetPosition() > 2500) {
-            lift.setTargetPosition(2500); }
+        if (lift.getTargetPosition() > 2500 - liftOffset) {
+            lift.setTargetPosition(2500 - liftOffset); }
     }
     //public void Tilt (double p) {pivot.setPosition(pivot.getPosition() + p); }
 }
@@ -16,6 +16,7 @@ import com.qualcomm.robotcore.hardware.IMU;
 import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
 import org.firstinspires.ftc.robotcore.external.navigation.AngularVelocity;
 import org.firstinspires.ftc.robotcore.external.navigation.YawPitchRollAngles;
+import org.firstinspires.ftc.teamcode.config.roadrunner.MatchStateStore;
 
 @TeleOp(name="TestDrive")
 public class TestDrive extends LinearOpMode {
@@ -33,6 +34,12 @@ public class TestDrive extends LinearOpMode {
     private Servo droneServo  = null; //es5
     private Servo WheelServo  = null; //es4
 
+    // where auto left the lift and gear, relative to where it zeroed them; the encoders are zeroed again here
+    private int liftOffset, gearOffset;
+    private MatchStateStore matchState;
+    private final MatchStateStore.State handOff = new MatchStateStore.State();
+    private final ElapsedTime handOffTimer = new ElapsedTime();
+
     IMU imu;
 
     @Override
@@ -80,6 +87,13 @@ public class TestDrive extends LinearOpMode {
         double orientation = imu.getRobotYawPitchRollAngles().getYaw(AngleUnit.DEGREES);
 
 
+        matchState = new MatchStateStore();
+        if (matchState.read(handOff)) {
+            liftOffset = handOff.liftTicks;
+            gearOffset = handOff.gearTicks;
+            telemetry.addData("Hand-off", "lift %d, gear %d", liftOffset, gearOffset);
+        }
+
         telemetry.addData("Status", "Initialized");
         telemetry.update();
         waitForStart();
@@ -269,7 +283,9 @@ public class TestDrive extends LinearOpMode {
 
 
             if (gamepad1.x) {gear.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
-                lift.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER); }
+                lift.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
+                liftOffset = 0;
+                gearOffset = 0; }
 
 
             /**lift encoder should never be above 2800
@@ -337,6 +353,13 @@ public class TestDrive extends LinearOpMode {
             telemetry.addData("clawL position", clawL.getPosition());
             telemetry.addData("clawR position", clawR.getPosition());
             telemetry.addData("droneServo position", droneServo.getPosition());*/
+            // keep the hand-off current so a restart or another init still knows where things are
+            if (handOffTimer.seconds() > 0.25) {
+                handOffTimer.reset();
+                handOff.liftTicks = lift.getCurrentPosition() + liftOffset;
+                handOff.gearTicks = gear.getCurrentPosition() + gearOffset;
+                matchState.write(handOff);
+            }
             telemetry.update();
 
 
@@ -344,8 +367,8 @@ public class TestDrive extends LinearOpMode {
 
     }
 
-    public void raegPosition (int h, double H) {gear.setTargetPosition(h); gear.setPower(H); }
-    public void tfilPosition (int e, double E) {lift.setTargetPosition(e); lift.setPower(E); }
+    public void raegPosition (int h, double H) {gear.setTargetPosition(h - gearOffset); gear.setPower(H); }
+    public void tfilPosition (int e, double E) {lift.setTargetPosition(e - liftOffset); lift.setPower(E); }
 
     public void raeg (int s) {
         gear.setPower(0.425);
@@ -376,8 +399,8 @@ public class TestDrive extends LinearOpMode {
     public void fasttfil (int s) {
         lift.setPower(1);
         lift.setTargetPosition(lift.getCurrentPosition() + 250 * s);
-        if (lift.getTargetPosition() > 2500) {
-            lift.setTargetPosition(2500); }
+        if (lift.getTargetPosition() > 2500 - liftOffset) {
+            lift.setTargetPosition(2500 - liftOffset); }
     }
 
     /*public void turn() {
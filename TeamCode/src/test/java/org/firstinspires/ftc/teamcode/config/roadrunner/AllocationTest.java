@@ -0,0 +1,78 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import com.acmerobotics.roadrunner.Pose2d;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The pure parts of the control tick allocate nothing once warm.
+ */
+public class AllocationTest {
+    private static final int WARMUP = 20000;
+    private static final int CALLS = 10000;
+
+    private com.sun.management.ThreadMXBean threads;
+    private long threadId;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        threadId = Thread.currentThread().getId();
+    }
+
+    // bytes allocated by this thread over calls runs of tick, less what measuring itself costs
+    private long allocated(Runnable tick, int calls) {
+        long overhead = threads.getThreadAllocatedBytes(threadId);
+        overhead = threads.getThreadAllocatedBytes(threadId) - overhead;
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            tick.run();
+        }
+        return threads.getThreadAllocatedBytes(threadId) - before - overhead;
+    }
+
+    @Test
+    public void driveControllerDoesNotAllocate() {
+        DriveController controller = new DriveController();
+        controller.refresh();
+        Pose2d pose = new Pose2d(10, -5, 0.3);
+        double[] t = {0};
+
+        Runnable tick = () -> {
+            double s = t[0] += 0.01;
+            controller.refresh();
+            controller.setTarget(10 + s, -5 + 0.5 * s, 0.3 + 0.01 * s, 30, 10, 0.5, 5, -5, 0.1);
+            controller.computeCommand(pose, 28, 9, 0.45);
+            controller.computeWheelPowers(12.5);
+        };
+
+        allocated(tick, WARMUP);
+        assertEquals(0, allocated(tick, CALLS));
+    }
+
+    @Test
+    public void poseHistoryDoesNotAllocate() {
+        PoseHistory history = new PoseHistory(100);
+        double[] out = new double[3];
+        long[] now = {0};
+
+        Runnable tick = () -> {
+            long ts = now[0] += 5_000_000;
+            history.add(ts, ts * 1e-9, -ts * 1e-9, 0.001 * ts * 1e-9);
+            history.poseAt(ts - 12_000_000, out);
+        };
+
+        allocated(tick, WARMUP);
+        assertEquals(0, allocated(tick, CALLS));
+    }
+}
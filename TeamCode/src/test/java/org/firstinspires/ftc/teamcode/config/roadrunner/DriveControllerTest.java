@@ -0,0 +1,101 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner;
+
+import static org.junit.Assert.assertEquals;
+
+import com.acmerobotics.roadrunner.DualNum;
+import com.acmerobotics.roadrunner.HolonomicController;
+import com.acmerobotics.roadrunner.MecanumKinematics;
+import com.acmerobotics.roadrunner.MotorFeedforward;
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.Pose2dDual;
+import com.acmerobotics.roadrunner.PoseVelocity2d;
+import com.acmerobotics.roadrunner.PoseVelocity2dDual;
+import com.acmerobotics.roadrunner.Rotation2dDual;
+import com.acmerobotics.roadrunner.Time;
+import com.acmerobotics.roadrunner.Vector2d;
+import com.acmerobotics.roadrunner.Vector2dDual;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DriveControllerTest {
+    private MecanumDrive.Params saved;
+
+    @Before
+    public void setUp() {
+        saved = MecanumDrive.PARAMS;
+        MecanumDrive.PARAMS = new MecanumDrive.Params();
+        // the defaults leave these at 0
+        MecanumDrive.PARAMS.axialVelGain = 0.4;
+        MecanumDrive.PARAMS.lateralVelGain = 0.3;
+        MecanumDrive.PARAMS.headingVelGain = 0.2;
+    }
+
+    @After
+    public void tearDown() {
+        MecanumDrive.PARAMS = saved;
+    }
+
+    private static DualNum<Time> dual(Random random, double scale) {
+        return new DualNum<>(new double[] {
+                scale * (2 * random.nextDouble() - 1),
+                scale * (2 * random.nextDouble() - 1),
+                scale * (2 * random.nextDouble() - 1),
+        });
+    }
+
+    @Test
+    public void matchesRoadRunner() {
+        MecanumDrive.Params p = MecanumDrive.PARAMS;
+        HolonomicController holonomic = new HolonomicController(
+                p.axialGain, p.lateralGain, p.headingGain,
+                p.axialVelGain, p.lateralVelGain, p.headingVelGain);
+        MecanumKinematics kinematics = new MecanumKinematics(
+                p.inPerTick * p.trackWidthTicks, p.inPerTick / p.lateralInPerTick);
+        MotorFeedforward feedforward = new MotorFeedforward(p.kS, p.kV / p.inPerTick, p.kA / p.inPerTick);
+
+        DriveController controller = new DriveController();
+        controller.refresh();
+
+        Random random = new Random(1234);
+        for (int i = 0; i < 1000; i++) {
+            DualNum<Time> heading = dual(random, Math.PI);
+            Pose2dDual<Time> target = new Pose2dDual<>(
+                    new Vector2dDual<>(dual(random, 60), dual(random, 60)),
+                    new Rotation2dDual<>(heading.cos(), heading.sin()));
+            Pose2d pose = new Pose2d(
+                    target.position.x.get(0) + 4 * random.nextGaussian(),
+                    target.position.y.get(0) + 4 * random.nextGaussian(),
+                    heading.get(0) + 0.3 * random.nextGaussian());
+            PoseVelocity2d vel = new PoseVelocity2d(
+                    new Vector2d(40 * random.nextGaussian(), 40 * random.nextGaussian()),
+                    2 * random.nextGaussian());
+            double voltage = 11 + 2 * random.nextDouble();
+
+            PoseVelocity2dDual<Time> command = holonomic.compute(target, pose, vel);
+            MecanumKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
+
+            controller.setTarget(target);
+            controller.compute(pose, vel, voltage);
+
+            assertEquals(command.linearVel.x.get(0), controller.forwardVel, 1e-9);
+            assertEquals(command.linearVel.x.get(1), controller.forwardAccel, 1e-9);
+            assertEquals(command.linearVel.y.get(0), controller.lateralVel, 1e-9);
+            assertEquals(command.linearVel.y.get(1), controller.lateralAccel, 1e-9);
+            assertEquals(command.angVel.get(0), controller.angVel, 1e-9);
+            assertEquals(command.angVel.get(1), controller.angAccel, 1e-9);
+
+            assertEquals(feedforward.compute(wheelVels.leftFront) / voltage,
+                    controller.wheelPowers[DriveController.LEFT_FRONT], 1e-9);
+            assertEquals(feedforward.compute(wheelVels.leftBack) / voltage,
+                    controller.wheelPowers[DriveController.LEFT_BACK], 1e-9);
+            assertEquals(feedforward.compute(wheelVels.rightBack) / voltage,
+                    controller.wheelPowers[DriveController.RIGHT_BACK], 1e-9);
+            assertEquals(feedforward.compute(wheelVels.rightFront) / voltage,
+                    controller.wheelPowers[DriveController.RIGHT_FRONT], 1e-9);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.firstinspires.ftc.teamcode.config.roadrunner.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.acmerobotics.roadrunner.Pose2d;
+
+import org.firstinspires.ftc.teamcode.config.roadrunner.ThreeDeadWheelLocalizer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class LocalizerReplayTest {
+    private static final double IN_PER_TICK = 0.002;
+    private static final int STRAIGHT = 50, TURNING = 50;
+    private static final int TICKS_PER_STEP = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // drives straight, then turns on the spot; written the way FlightRecorder writes it
+    private File writeFixture() throws IOException {
+        File log = folder.newFile("fixture.log");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(log))) {
+            out.writeByte('R');
+            out.writeByte('R');
+            out.writeShort(1);
+
+            out.writeInt(0);
+            writeString(out, "THREE_DEAD_WHEEL_INPUTS");
+            out.writeInt(0);
+            out.writeInt(4);
+            writeString(out, "timestamp");
+            out.writeInt(2);
+            for (String wheel : new String[] {"par0", "par1", "perp"}) {
+                writeString(out, wheel);
+                out.writeInt(0);
+                out.writeInt(2);
+                writeString(out, "position");
+                out.writeInt(1);
+                writeString(out, "velocity");
+                out.writeInt(1);
+            }
+
+            out.writeInt(0);
+            writeString(out, "MECANUM_PARAMS");
+            out.writeInt(0);
+            out.writeInt(1);
+            writeString(out, "inPerTick");
+            out.writeInt(3);
+
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeDouble(IN_PER_TICK);
+
+            int par0 = 0, par1 = 0;
+            for (int i = 0; i < STRAIGHT + TURNING; i++) {
+                out.writeInt(1);
+                out.writeInt(0);
+                out.writeLong(i * 5_000_000L);
+                out.writeInt(par0);
+                out.writeInt(0);
+                out.writeInt(par1);
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeInt(0);
+
+                par0 += TICKS_PER_STEP;
+                par1 += i < STRAIGHT - 1 ? TICKS_PER_STEP : -TICKS_PER_STEP;
+            }
+        }
+        return log;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Test
+    public void replaysFixture() throws IOException {
+        ThreeDeadWheelLocalizer.PARAMS = new ThreeDeadWheelLocalizer.Params();
+        LocalizerReplay replay = new LocalizerReplay(writeFixture());
+        assertEquals(STRAIGHT + TURNING, replay.size());
+
+        LocalizerReplay.Trace trace = replay.run(ThreeDeadWheelLocalizer::new, new Pose2d(0, 0, 0));
+        assertEquals(STRAIGHT + TURNING - 1, trace.size());
+
+        // straight ahead until the turn starts
+        int end = STRAIGHT - 2;
+        assertEquals((STRAIGHT - 1) * TICKS_PER_STEP * IN_PER_TICK, trace.xs[end], 1e-9);
+        assertEquals(0, trace.ys[end], 1e-9);
+        assertEquals(0, trace.headings[end], 1e-12);
+
+        // then only par1 reverses, so the robot turns
+        ThreeDeadWheelLocalizer.Params p = ThreeDeadWheelLocalizer.PARAMS;
+        double perStep = 2.0 * TICKS_PER_STEP / (p.par0YTicks - p.par1YTicks);
+        assertEquals(Math.IEEEremainder(TURNING * perStep, 2 * Math.PI),
+                trace.headings[trace.size() - 1], 1e-9);
+
+        // the same replay matches its own trace exactly, through the CSV
+        File csv = folder.newFile("trace.csv");
+        LocalizerReplay.writeTrace(trace, csv);
+        LocalizerReplay.Diff same = LocalizerReplay.compare(
+                replay.run(ThreeDeadWheelLocalizer::new, new Pose2d(0, 0, 0)), LocalizerReplay.readTrace(csv));
+        assertFalse(same.mismatched);
+        assertEquals(0, same.maxPositionError, 0);
+        assertEquals(0, same.maxHeadingError, 0);
+        assertTrue(same.passes(1e-6, 1e-6));
+    }
+
+    @Test
+    public void headingErrorFailsTolerance() throws IOException {
+        ThreeDeadWheelLocalizer.PARAMS = new ThreeDeadWheelLocalizer.Params();
+        LocalizerReplay replay = new LocalizerReplay(writeFixture());
+        LocalizerReplay.Trace trace = replay.run(ThreeDeadWheelLocalizer::new, new Pose2d(0, 0, 0));
+
+        // same positions, heading off by a hundredth of a radian
+        LocalizerReplay.Trace rotated = replay.run(ThreeDeadWheelLocalizer::new, new Pose2d(0, 0, 0));
+        for (int i = 0; i < rotated.size(); i++) {
+            rotated.headings[i] += 0.01;
+        }
+
+        LocalizerReplay.Diff diff = LocalizerReplay.compare(rotated, trace);
+        assertEquals(0, diff.maxPositionError, 0);
+        assertEquals(0.01, diff.maxHeadingError, 1e-9);
+        assertFalse(diff.passes(1e-6, 1e-6));
+        assertTrue(diff.passes(1e-6, 0.02));
+    }
+}